@@ -0,0 +1,258 @@
+package jsmt.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+/**
+ * Finds those solutions of a constraint set which maximise a given objective,
+ * by branch and bound. The best <code>k</code> solutions found so far are kept
+ * in a bounded heap, whose worst entry gives the incumbent bound once the heap
+ * is full. Upon entering each variable upto (and just after) the last one read
+ * by the objective, the range of the objective is computed by interval
+ * arithmetic, with the variables already assigned fixed and the remainder
+ * ranging over their static domains (as inferred by <code>Presolve</code>). If
+ * even its greatest value is worse than the incumbent bound, then no completion
+ * of the current prefix can enter the heap, and the variable's range is empty.
+ * <p>
+ * The incumbent bound only ever improves, hence it can be shared between
+ * threads searching different parts of the tree. Ties are broken in favour of
+ * the lexicographically least assignment, which is the first in search order.
+ * Subtrees are only pruned when they cannot even tie with the incumbent, hence
+ * the result does not depend on the order in which solutions are found.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+final class BranchAndBound {
+	private final Variable objective;
+	/**
+	 * Flattened form of the objective, as needed for interval arithmetic.
+	 */
+	private final int[] code;
+	/**
+	 * The variables read by the objective, in order of declaration.
+	 */
+	private final int[] reads;
+	private final int k;
+	/**
+	 * The static domain of each variable.
+	 */
+	private final int[] lo;
+	private final int[] hi;
+	/**
+	 * The best solutions found so far, with the worst at its head.
+	 */
+	private final PriorityQueue<Entry> heap;
+	/**
+	 * Objective of the worst solution in the heap once it is full, or
+	 * <code>Long.MIN_VALUE</code> until then.
+	 */
+	private volatile long incumbent = Long.MIN_VALUE;
+	private final ThreadLocal<int[][]> boxes;
+
+	public BranchAndBound(Variable objective, int k, int[] lo, int[] hi) {
+		final int n = lo.length;
+		if (k < 1) {
+			throw new IllegalArgumentException("invalid k " + k);
+		}
+		BitSet deps = new BitSet();
+		objective.dependencies(deps);
+		if (deps.length() > n) {
+			throw new IllegalArgumentException("objective reads undeclared variable");
+		}
+		this.objective = objective;
+		this.code = objective.flatten();
+		this.reads = deps.stream().toArray();
+		this.k = k;
+		this.lo = lo;
+		this.hi = hi;
+		this.heap = new PriorityQueue<>((a, b) -> b.compareTo(a));
+		this.boxes = ThreadLocal.withInitial(() -> new int[][] { lo.clone(), hi.clone() });
+	}
+
+	/**
+	 * Wrap the constraints on those variables at which the objective should be
+	 * bounded. This is every variable upto and including the one after the last
+	 * read by the objective, except the first (where nothing is assigned).
+	 *
+	 * @param constraints
+	 * @return
+	 */
+	public Constraint[] apply(Constraint[] constraints) {
+		final int n = constraints.length;
+		final int end = reads.length == 0 ? 0 : Math.min(n - 1, reads[reads.length - 1] + 1);
+		Constraint[] result = constraints.clone();
+		for (int v = 1; v <= end; ++v) {
+			result[v] = new Bound(this, v, constraints[v]);
+		}
+		return result;
+	}
+
+	/**
+	 * Offer a solution for inclusion in the heap, which is copied if it is
+	 * accepted.
+	 *
+	 * @param values
+	 */
+	public void offer(int[] values) {
+		int score = objective.evaluate(values);
+		if (score < incumbent) {
+			return;
+		}
+		synchronized (this) {
+			if (heap.size() == k) {
+				if (new Entry(score, values).compareTo(heap.peek()) >= 0) {
+					return;
+				}
+				heap.poll();
+			}
+			heap.add(new Entry(score, values.clone()));
+			if (heap.size() == k) {
+				incumbent = heap.peek().score;
+			}
+		}
+	}
+
+	/**
+	 * Get the solutions in the heap, best first.
+	 *
+	 * @return
+	 */
+	public synchronized int[][] solutions() {
+		Entry[] entries = heap.toArray(new Entry[heap.size()]);
+		Arrays.sort(entries);
+		int[][] r = new int[entries.length][];
+		for (int i = 0; i != entries.length; ++i) {
+			r[i] = entries[i].values;
+		}
+		return r;
+	}
+
+	/**
+	 * Determine whether some completion of the assignment to variables before a
+	 * given variable, where that variable lies within a given range, could give an
+	 * objective no worse than the incumbent.
+	 *
+	 * @param v
+	 * @param values
+	 * @param lb     Least value of the variable.
+	 * @param ub     Greatest value of the variable.
+	 * @return
+	 */
+	private boolean promising(int v, int[] values, int lb, int ub) {
+		final long bound = incumbent;
+		if (bound == Long.MIN_VALUE) {
+			return true;
+		}
+		int[][] box = boxes.get();
+		int[] l = box[0];
+		int[] h = box[1];
+		for (int i = 0; i != reads.length; ++i) {
+			int u = reads[i];
+			if (u < v) {
+				l[u] = values[u];
+				h[u] = values[u];
+			} else if (u == v) {
+				l[u] = lb;
+				h[u] = ub;
+			} else {
+				l[u] = lo[u];
+				h[u] = hi[u];
+			}
+		}
+		return Variable.bounds(code, l, h)[1] >= bound;
+	}
+
+	/**
+	 * A solution held in the heap. Entries are ordered best first, that is by
+	 * decreasing objective and then lexicographically by assignment.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Entry implements Comparable<Entry> {
+		private final int score;
+		private final int[] values;
+
+		public Entry(int score, int[] values) {
+			this.score = score;
+			this.values = values;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			if (score != o.score) {
+				return score > o.score ? -1 : 1;
+			}
+			for (int i = 0; i != values.length; ++i) {
+				if (values[i] != o.values[i]) {
+					return values[i] < o.values[i] ? -1 : 1;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Wraps the constraint on a variable, such that its range is empty if no
+	 * completion of the current prefix could enter the heap.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Bound extends Constraint {
+		private final BranchAndBound search;
+		private final int variable;
+		private final Constraint constraint;
+
+		public Bound(BranchAndBound search, int variable, Constraint constraint) {
+			this.search = search;
+			this.variable = variable;
+			this.constraint = constraint;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			int lb = constraint.lowerBound(values);
+			int ub = constraint.upperBound(values);
+			if (lb <= ub && !search.promising(variable, values, lb, ub)) {
+				// Empty range, regardless of upper bound
+				return Integer.MAX_VALUE;
+			}
+			return lb;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return constraint.upperBound(values);
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			return constraint.nextValue(values, value);
+		}
+
+		@Override
+		boolean isSparse() {
+			return constraint.isSparse();
+		}
+
+		@Override
+		public void dependencies(int v, BitSet deps) {
+			constraint.dependencies(v, deps);
+			for (int u : search.reads) {
+				if (u < variable) {
+					deps.set(u);
+				}
+			}
+		}
+
+		@Override
+		public long fingerprint() {
+			// NOTE: pruning depends on the solutions found so far, not the structure
+			return constraint.fingerprint();
+		}
+	}
+}
@@ -0,0 +1,433 @@
+package jsmt.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Represents the compiled form of a constraint on a single variable. This
+ * flattens a (potentially nested) conjunction of built-in constraints into a
+ * static lower and upper bound, along with arrays of polynomial bounds encoded
+ * as flat integer arrays (see <code>Variable.flatten()</code>). Since this
+ * class is final, calls to its bounds from the search are monomorphic.
+ * Constraints which could not be compiled are retained as residuals, and are
+ * interpreted as before.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class CompiledConstraint extends Constraint {
+	private final int lower;
+	private final int upper;
+	private final int[][] lowers;
+	private final int[] lowerOffsets;
+	private final int[][] uppers;
+	private final int[] upperOffsets;
+	/**
+	 * For each polynomial bound, its original form when evaluating this with
+	 * caching is worthwhile (or <code>null</code> otherwise).
+	 */
+	private final Variable[] lowerCached;
+	private final Variable[] upperCached;
+	private final Constraint[] residuals;
+
+	private CompiledConstraint(Builder builder) {
+		this.lower = builder.lower;
+		this.upper = builder.upper;
+		this.lowers = builder.lowers.toArray(new int[builder.lowers.size()][]);
+		this.lowerOffsets = toIntArray(builder.lowerOffsets);
+		this.uppers = builder.uppers.toArray(new int[builder.uppers.size()][]);
+		this.upperOffsets = toIntArray(builder.upperOffsets);
+		this.residuals = builder.residuals.toArray(new Constraint[builder.residuals.size()]);
+		this.lowerCached = cached(lowers);
+		this.upperCached = cached(uppers);
+	}
+
+	@Override
+	public int lowerBound(int[] values) {
+		int m = lower;
+		for (int i = 0; i != lowers.length; ++i) {
+			Variable c = lowerCached[i];
+			int v = c == null ? evaluate(lowers[i], values) : c.evaluateCached(values);
+			m = Math.max(m, v + lowerOffsets[i]);
+		}
+		for (int i = 0; i != residuals.length; ++i) {
+			m = Math.max(m, residuals[i].lowerBound(values));
+		}
+		return m;
+	}
+
+	@Override
+	public int upperBound(int[] values) {
+		int m = upper;
+		for (int i = 0; i != uppers.length; ++i) {
+			Variable c = upperCached[i];
+			int v = c == null ? evaluate(uppers[i], values) : c.evaluateCached(values);
+			m = Math.min(m, v + upperOffsets[i]);
+		}
+		for (int i = 0; i != residuals.length; ++i) {
+			m = Math.min(m, residuals[i].upperBound(values));
+		}
+		return m;
+	}
+
+	@Override
+	public long nextValue(int[] values, int value) {
+		return Constraint.nextValue(residuals, values, value);
+	}
+
+	@Override
+	boolean isSparse() {
+		for (int i = 0; i != residuals.length; ++i) {
+			if (residuals[i].isSparse()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Narrow the domain of the variable being constrained, given domains for the
+	 * variables it depends upon. This uses interval arithmetic over the polynomial
+	 * bounds, and ignores any residuals (which is safe, since they can only narrow
+	 * the range further).
+	 *
+	 * @param variable
+	 * @param lo
+	 * @param hi
+	 * @return <code>false</code> if the domain is empty.
+	 */
+	boolean narrow(int variable, int[] lo, int[] hi) {
+		long l = Math.max(lo[variable], lower);
+		long h = Math.min(hi[variable], upper);
+		for (int i = 0; i != lowers.length && l <= h; ++i) {
+			l = Math.max(l, (long) Variable.bounds(lowers[i], lo, hi)[0] + lowerOffsets[i]);
+		}
+		for (int i = 0; i != uppers.length && l <= h; ++i) {
+			h = Math.min(h, (long) Variable.bounds(uppers[i], lo, hi)[1] + upperOffsets[i]);
+		}
+		if (l > h) {
+			return false;
+		}
+		lo[variable] = (int) l;
+		hi[variable] = (int) h;
+		return true;
+	}
+
+	/**
+	 * Construct an equivalent constraint whose static bounds are tightened to the
+	 * domain of the variable being constrained, dropping any polynomial bounds
+	 * which this implies given the domains of the variables they depend upon.
+	 * Such bounds can never be tight during the search, and dropping them also
+	 * removes needless dependencies.
+	 *
+	 * @param variable
+	 * @param lo
+	 * @param hi
+	 * @return
+	 */
+	CompiledConstraint restrict(int variable, int[] lo, int[] hi) {
+		Builder builder = new Builder();
+		builder.lowerBound(Math.max(lower, lo[variable]));
+		builder.upperBound(Math.min(upper, hi[variable]));
+		for (int i = 0; i != lowers.length; ++i) {
+			if ((long) Variable.bounds(lowers[i], lo, hi)[1] + lowerOffsets[i] > builder.lower) {
+				builder.lowers.add(lowers[i]);
+				builder.lowerOffsets.add(lowerOffsets[i]);
+			}
+		}
+		for (int i = 0; i != uppers.length; ++i) {
+			if ((long) Variable.bounds(uppers[i], lo, hi)[0] + upperOffsets[i] < builder.upper) {
+				builder.uppers.add(uppers[i]);
+				builder.upperOffsets.add(upperOffsets[i]);
+			}
+		}
+		for (int i = 0; i != residuals.length; ++i) {
+			builder.residual(residuals[i]);
+		}
+		return new CompiledConstraint(builder);
+	}
+
+	/**
+	 * Determine whether some polynomial bound of this constraint reads more than
+	 * one variable.
+	 *
+	 * @return
+	 */
+	boolean isMultivariate() {
+		BitSet vars = new BitSet();
+		for (int[] code : lowers) {
+			vars.clear();
+			addDependencies(new int[][] { code }, vars);
+			if (vars.cardinality() > 1) {
+				return true;
+			}
+		}
+		for (int[] code : uppers) {
+			vars.clear();
+			addDependencies(new int[][] { code }, vars);
+			if (vars.cardinality() > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void dependencies(int variable, BitSet deps) {
+		addDependencies(lowers, deps);
+		addDependencies(uppers, deps);
+		for (int i = 0; i != residuals.length; ++i) {
+			residuals[i].dependencies(variable, deps);
+		}
+	}
+
+	@Override
+	Constraint remap(int[] mapping) {
+		Builder builder = new Builder();
+		builder.lowerBound(lower);
+		builder.upperBound(upper);
+		for (int i = 0; i != lowers.length; ++i) {
+			builder.lowers.add(remap(lowers[i], mapping));
+			builder.lowerOffsets.add(lowerOffsets[i]);
+		}
+		for (int i = 0; i != uppers.length; ++i) {
+			builder.uppers.add(remap(uppers[i], mapping));
+			builder.upperOffsets.add(upperOffsets[i]);
+		}
+		for (int i = 0; i != residuals.length; ++i) {
+			Constraint r = residuals[i].remap(mapping);
+			if (r == null) {
+				return null;
+			}
+			builder.residual(r);
+		}
+		return new CompiledConstraint(builder);
+	}
+
+	@Override
+	boolean compile(Builder builder) {
+		builder.lowerBound(lower);
+		builder.upperBound(upper);
+		for (int i = 0; i != lowers.length; ++i) {
+			builder.lowers.add(lowers[i]);
+			builder.lowerOffsets.add(lowerOffsets[i]);
+		}
+		for (int i = 0; i != uppers.length; ++i) {
+			builder.uppers.add(uppers[i]);
+			builder.upperOffsets.add(upperOffsets[i]);
+		}
+		for (int i = 0; i != residuals.length; ++i) {
+			builder.residual(residuals[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Compile a given constraint, or return it unchanged if it cannot be compiled.
+	 *
+	 * @param constraint
+	 * @return
+	 */
+	public static Constraint compile(Constraint constraint) {
+		Builder builder = new Builder();
+		if (constraint.compile(builder)) {
+			return new CompiledConstraint(builder);
+		} else {
+			return constraint;
+		}
+	}
+
+	/**
+	 * Determine a fixed range containing every value which a given constraint
+	 * could permit, based only on its static bounds. This is conservative, in that
+	 * a constraint which cannot be compiled is assumed to permit any value.
+	 *
+	 * @param constraint
+	 * @return The lower and upper bound of the range.
+	 */
+	public static int[] range(Constraint constraint) {
+		Builder builder = new Builder();
+		if (!constraint.compile(builder)) {
+			return new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE };
+		}
+		return new int[] { builder.lower, builder.upper };
+	}
+
+	/**
+	 * Combine a hash with a given value (using the FNV-1a scheme).
+	 *
+	 * @param h
+	 * @param value
+	 * @return
+	 */
+	static long mix(long h, long value) {
+		return (h ^ value) * 0x100000001b3L;
+	}
+
+	private static void addDependencies(int[][] polys, BitSet deps) {
+		for (int[] code : polys) {
+			int k = 1;
+			for (int i = code[0]; i > 0; --i) {
+				// skip coefficient
+				k = k + 1;
+				for (int j = code[k++]; j > 0; --j) {
+					deps.set(code[k++]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remap the variables of a polynomial given in its flattened form.
+	 *
+	 * @param code
+	 * @param mapping
+	 * @return
+	 */
+	private static int[] remap(int[] code, int[] mapping) {
+		int[] ncode = code.clone();
+		int k = 1;
+		for (int i = code[0]; i > 0; --i) {
+			// skip coefficient
+			k = k + 1;
+			for (int j = code[k++]; j > 0; --j) {
+				ncode[k] = mapping[code[k]];
+				k = k + 1;
+			}
+		}
+		return ncode;
+	}
+
+	/**
+	 * Evaluate a polynomial given in its flattened form. This gives exactly the
+	 * same result as evaluating the original variable.
+	 *
+	 * @param code
+	 * @param values
+	 * @return
+	 */
+	private static int evaluate(int[] code, int[] values) {
+		int r = 0;
+		int k = 1;
+		for (int i = code[0]; i > 0; --i) {
+			int v = code[k++];
+			for (int j = code[k++]; j > 0; --j) {
+				v = v * values[code[k++]];
+			}
+			r = r + v;
+		}
+		return r;
+	}
+
+	/**
+	 * Determine which of a given array of polynomials (in flattened form) should
+	 * be evaluated with caching, reconstructing those which should.
+	 *
+	 * @param polys
+	 * @return
+	 */
+	private static Variable[] cached(int[][] polys) {
+		Variable[] r = new Variable[polys.length];
+		for (int i = 0; i != polys.length; ++i) {
+			if (Variable.isCacheable(polys[i])) {
+				r[i] = Variable.unflatten(polys[i]);
+			}
+		}
+		return r;
+	}
+
+	private static int[] toIntArray(ArrayList<Integer> items) {
+		int[] r = new int[items.size()];
+		for (int i = 0; i != r.length; ++i) {
+			r[i] = items.get(i);
+		}
+		return r;
+	}
+
+	/**
+	 * Accumulates the bounds contributed by one or more constraints on the same
+	 * variable.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	static class Builder {
+		private int lower = Integer.MIN_VALUE;
+		private int upper = Integer.MAX_VALUE;
+		private final ArrayList<int[]> lowers = new ArrayList<>();
+		private final ArrayList<Integer> lowerOffsets = new ArrayList<>();
+		private final ArrayList<int[]> uppers = new ArrayList<>();
+		private final ArrayList<Integer> upperOffsets = new ArrayList<>();
+		private final ArrayList<Constraint> residuals = new ArrayList<>();
+
+		/**
+		 * Add a fixed lower bound.
+		 *
+		 * @param value
+		 */
+		public void lowerBound(int value) {
+			lower = Math.max(lower, value);
+		}
+
+		/**
+		 * Add a fixed upper bound.
+		 *
+		 * @param value
+		 */
+		public void upperBound(int value) {
+			upper = Math.min(upper, value);
+		}
+
+		/**
+		 * Add a lower bound given by a variable plus a fixed offset.
+		 *
+		 * @param variable
+		 * @param offset
+		 */
+		public void lowerBound(Variable variable, int offset) {
+			lowers.add(variable.flatten());
+			lowerOffsets.add(offset);
+		}
+
+		/**
+		 * Add an upper bound given by a variable plus a fixed offset.
+		 *
+		 * @param variable
+		 * @param offset
+		 */
+		public void upperBound(Variable variable, int offset) {
+			uppers.add(variable.flatten());
+			upperOffsets.add(offset);
+		}
+
+		/**
+		 * Add a constraint which cannot be compiled, and must be interpreted.
+		 *
+		 * @param constraint
+		 */
+		public void residual(Constraint constraint) {
+			residuals.add(constraint);
+		}
+
+		/**
+		 * Compute a fingerprint which identifies the bounds accumulated so far,
+		 * including the fingerprints of any residual constraints.
+		 *
+		 * @return
+		 */
+		long fingerprint() {
+			long h = mix(mix(2, lower), upper);
+			for (int i = 0; i != lowers.size(); ++i) {
+				h = mix(mix(mix(h, 3), Arrays.hashCode(lowers.get(i))), lowerOffsets.get(i));
+			}
+			for (int i = 0; i != uppers.size(); ++i) {
+				h = mix(mix(mix(h, 4), Arrays.hashCode(uppers.get(i))), upperOffsets.get(i));
+			}
+			for (Constraint c : residuals) {
+				h = mix(mix(h, 5), c.fingerprint());
+			}
+			return h;
+		}
+	}
+}
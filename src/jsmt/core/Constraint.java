@@ -1,8 +1,35 @@
 package jsmt.core;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -32,6 +59,140 @@ public abstract class Constraint {
 	 */
 	public abstract int upperBound(int[] values);
 
+	/**
+	 * For a given variable assignment, determine the least value permitted by this
+	 * constraint which is no less than a given value. This allows a constraint to
+	 * permit only some of the values between its bounds (e.g. <code>x != y</code>),
+	 * such that the search skips directly over those it does not permit rather
+	 * than visiting every one. Like the bounds, this must only read those variables
+	 * added by <code>dependencies()</code>. By default, every value between the
+	 * bounds is permitted.
+	 *
+	 * @param values
+	 * @param value
+	 * @return The least permitted value, or <code>Long.MAX_VALUE</code> if there
+	 *         is none.
+	 */
+	public long nextValue(int[] values, int value) {
+		return value;
+	}
+
+	/**
+	 * Determine whether this constraint may not permit every value between its
+	 * bounds. By default, this holds for any constraint which overrides
+	 * <code>nextValue()</code>. When this does not hold, the search does not call
+	 * <code>nextValue()</code> at all.
+	 *
+	 * @return
+	 */
+	boolean isSparse() {
+		return SPARSE.get(getClass());
+	}
+
+	/**
+	 * Determines, for each class of constraint, whether it overrides
+	 * <code>nextValue()</code>.
+	 */
+	private static final ClassValue<Boolean> SPARSE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("nextValue", int[].class, int.class).getDeclaringClass() != Constraint.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+
+	/**
+	 * Determine the least value permitted by every one of a number of constraints
+	 * which is no less than a given value.
+	 *
+	 * @param constraints
+	 * @param values
+	 * @param value
+	 * @return The least permitted value, or <code>Long.MAX_VALUE</code> if there
+	 *         is none.
+	 */
+	static long nextValue(Constraint[] constraints, int[] values, int value) {
+		long r = value;
+		// Number of consecutive constraints permitting r
+		int permitting = 0;
+		for (int i = 0; permitting < constraints.length; i = (i + 1) % constraints.length) {
+			long next = constraints[i].nextValue(values, (int) r);
+			if (next > Integer.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			} else if (next != r) {
+				r = next;
+				permitting = 1;
+			} else {
+				permitting = permitting + 1;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Add the variables which the bounds of this constraint may read to a given
+	 * set. Since a constraint can only refer to variables declared before the one
+	 * it constrains, it is conservatively assumed by default to read all of them.
+	 * Constraints should override this where possible, since it allows the search
+	 * to backjump over variables which cannot affect them.
+	 *
+	 * @param variable The variable being constrained.
+	 * @param deps
+	 */
+	public void dependencies(int variable, BitSet deps) {
+		deps.set(0, variable);
+	}
+
+	/**
+	 * Construct an equivalent constraint where every variable has been moved to a
+	 * new position, as determined by a given mapping from old to new positions.
+	 * This returns <code>null</code> if the constraint cannot be remapped, in which
+	 * case the original layout is restored whenever it is evaluated. User-defined
+	 * constraints are never remapped.
+	 *
+	 * @param mapping
+	 * @return
+	 */
+	Constraint remap(int[] mapping) {
+		return null;
+	}
+
+	/**
+	 * Contribute the bounds of this constraint to a compiled constraint being
+	 * constructed. This returns <code>false</code> if the constraint cannot be
+	 * compiled, in which case it is retained as is and interpreted during search.
+	 * User-defined constraints are never compiled.
+	 *
+	 * @param builder
+	 * @return
+	 */
+	boolean compile(CompiledConstraint.Builder builder) {
+		return false;
+	}
+
+	/**
+	 * Compute a fingerprint which identifies the structure of this constraint,
+	 * such that constraints permitting different values have different
+	 * fingerprints (with high probability). This is used to check that a
+	 * checkpoint or remote worker belongs to the constraint set in question, and
+	 * so must not vary between runs. By default, a constraint which can be
+	 * compiled is identified by its compiled form, whilst any other is identified
+	 * by its class alone. Hence, user-defined constraints with parameters should
+	 * override this.
+	 *
+	 * @return
+	 */
+	public long fingerprint() {
+		CompiledConstraint.Builder builder = new CompiledConstraint.Builder();
+		if (compile(builder)) {
+			return builder.fingerprint();
+		}
+		return CompiledConstraint.mix(1, getClass().getName().hashCode());
+	}
+
 	/**
 	 * Represents a constrained set of items.
 	 *
@@ -39,35 +200,1906 @@ public abstract class Constraint {
 	 *
 	 * @param <T>
 	 */
-	public static class Set<T> implements Iterable<T> {
-		private final ArrayList<Constraint> constraints = new ArrayList<>();
-		private final Function<int[], T> projection;
+	public static class Set<T> implements Iterable<T> {
+		private final ArrayList<Constraint> constraints = new ArrayList<>();
+		/**
+		 * Forward constraints, which may refer to any declared variables.
+		 */
+		private final ArrayList<Propagator> propagators = new ArrayList<>();
+		/**
+		 * Groups of interchangeable variables (each in declaration order), whose
+		 * values are constrained to be non-decreasing.
+		 */
+		private final ArrayList<int[]> symmetries = new ArrayList<>();
+		private final Function<int[], T> projection;
+		/**
+		 * Time (in nanoseconds) taken to compile this set, or zero if it was not
+		 * compiled.
+		 */
+		private long compileTime;
+		/**
+		 * Variables whose domain could not be bounded, or <code>null</code> if this
+		 * set was not presolved.
+		 */
+		private BitSet unbounded;
+		/**
+		 * Nogoods shared between iterators over this set, or <code>null</code> if
+		 * nogood caching is disabled.
+		 */
+		private NogoodCache nogoods;
+		/**
+		 * For each declared variable, its position in the search order, or
+		 * <code>null</code> if variables are searched in declaration order (see
+		 * <code>plan()</code>). Constraints, symmetries and unbounded variables are
+		 * held in search order, whilst assignments and variables passed into or out of
+		 * this set are always in the declared layout.
+		 */
+		private int[] position;
+		/**
+		 * Constraint used for variables outside of a component being enumerated.
+		 */
+		private static final Constraint PINNED = Constraints.between(0, 0);
+
+		public Set(Function<int[], T> projection) {
+			this.projection = projection;
+		}
+
+		/**
+		 * Add a new variable to the constraint set. This returns a handle through which
+		 * we can interact with the allocated variable in creating subsequent downstream
+		 * constraints.
+		 *
+		 * @param constraint
+		 * @return
+		 */
+		public Variable declare(Constraint constraint) {
+			checkUnplanned();
+			int n = constraints.size();
+			constraints.add(constraint);
+			if (nogoods != null) {
+				// Existing nogoods are keyed on the old dependencies
+				nogoods.clear();
+			}
+			return new Variable(1, n);
+		}
+
+		/**
+		 * Get a handle for the variable which will be allocated by the next
+		 * declaration. This allows the constraint given when declaring a variable to
+		 * refer to the variable itself, as needed by
+		 * <code>Constraints.solve()</code>.
+		 *
+		 * @return
+		 */
+		public Variable nextVariable() {
+			checkUnplanned();
+			return new Variable(1, constraints.size());
+		}
+
+		/**
+		 * Add a forward constraint to this set. Unlike the constraint given when
+		 * declaring a variable, this may refer to any declared variables (including
+		 * those declared later on). The search enforces it by bounds propagation upon
+		 * entering each variable it refers to. That is, the domains of the remaining
+		 * variables are narrowed from the values already assigned, and the current
+		 * prefix is abandoned as soon as any domain becomes empty.
+		 *
+		 * @param propagator
+		 */
+		public void require(Propagator propagator) {
+			checkUnplanned();
+			propagators.add(propagator);
+			if (nogoods != null) {
+				nogoods.clear();
+			}
+		}
+
+		/**
+		 * Declare that a group of variables is interchangeable. That is, permuting
+		 * their values in any solution always gives another solution. Only the
+		 * lexicographically canonical representative of each such orbit is then
+		 * enumerated, namely that whose values are non-decreasing in declaration
+		 * order. This is enforced by constraining each variable in the group to be no
+		 * less than the one before, hence counting and ranking apply to
+		 * representatives. The number of solutions each represents is given by
+		 * <code>orbit()</code>. Whether the variables are genuinely interchangeable is
+		 * not checked. For a planned set, values are instead non-decreasing in the
+		 * order in which the variables are searched.
+		 *
+		 * @param group
+		 * @throws IllegalArgumentException if a variable is not declared, or already
+		 *                                  belongs to a group.
+		 */
+		public void symmetric(Variable... group) {
+			int[] vars = new int[group.length];
+			BitSet seen = new BitSet();
+			for (int[] g : symmetries) {
+				for (int v : g) {
+					seen.set(v);
+				}
+			}
+			for (int i = 0; i != group.length; ++i) {
+				int v = group[i].variable();
+				if (v < 0 || v >= constraints.size()) {
+					throw new IllegalArgumentException("invalid variable " + group[i]);
+				}
+				v = position(v);
+				if (seen.get(v)) {
+					throw new IllegalArgumentException("duplicate variable " + group[i]);
+				}
+				seen.set(v);
+				vars[i] = v;
+			}
+			Arrays.sort(vars);
+			// NOTE: later variables may always refer to earlier ones
+			for (int i = 1; i < vars.length; ++i) {
+				int v = vars[i];
+				Constraint c = Constraints.greaterOrEqual(new Variable(1, vars[i - 1]));
+				constraints.set(v, Constraints.and(constraints.get(v), c));
+			}
+			symmetries.add(vars);
+			if (nogoods != null) {
+				nogoods.clear();
+			}
+		}
+
+		/**
+		 * Determine the size of the orbit of a given solution under the symmetric
+		 * groups of this set, that is the number of distinct solutions obtained by
+		 * permuting the values within each group. For each group this is the
+		 * multinomial coefficient <code>k! / (m1! * m2! * ...)</code>, where
+		 * <code>k</code> is the size of the group and <code>m1, m2, ...</code> are the
+		 * multiplicities of its distinct values. Thus, summing the orbits of all
+		 * representatives gives the number of solutions without symmetry breaking.
+		 *
+		 * @param assignment
+		 * @throws ArithmeticException if the orbit size does not fit into a long.
+		 * @return
+		 */
+		public long orbit(int[] assignment) {
+			return orbitOf(toSearch(assignment));
+		}
+
+		/**
+		 * Determine the size of the orbit of a given solution in the search layout.
+		 *
+		 * @param assignment
+		 * @return
+		 */
+		private long orbitOf(int[] assignment) {
+			long r = 1;
+			for (int[] group : symmetries) {
+				int[] values = new int[group.length];
+				for (int i = 0; i != group.length; ++i) {
+					values[i] = assignment[group[i]];
+				}
+				Arrays.sort(values);
+				// Multiply binomial coefficients for each run of equal values
+				int total = 0;
+				for (int i = 0; i != values.length;) {
+					int j = i + 1;
+					while (j != values.length && values[j] == values[i]) {
+						j = j + 1;
+					}
+					total += j - i;
+					r = Math.multiplyExact(r, binomial(total, j - i));
+					i = j;
+				}
+			}
+			return r;
+		}
+
+		/**
+		 * Count the number of solutions to this constraint set had its symmetry not
+		 * been broken, by summing the orbit of every representative.
+		 *
+		 * @see #orbit(int[])
+		 * @return
+		 */
+		public BigInteger bigOrbitCount() {
+			if (symmetries.isEmpty()) {
+				return bigCount();
+			}
+			BigInteger count = BigInteger.ZERO;
+			Cursor cursor = cursor();
+			while (cursor.advance()) {
+				count = count.add(BigInteger.valueOf(orbitOf(cursor.engine.values)));
+			}
+			return count;
+		}
+
+		private static long binomial(int n, int k) {
+			long r = 1;
+			for (int i = 1; i <= k; ++i) {
+				// NOTE: exact, since r * (n - k + i) is divisible by i
+				r = Math.multiplyExact(r, n - k + i) / i;
+			}
+			return r;
+		}
+
+		/**
+		 * Enable caching of nogoods for iterators subsequently constructed over this
+		 * set. Whenever the search exhausts a subtree without finding a solution, it
+		 * records this against the values of those earlier variables upon which the
+		 * subtree depends. Subtrees reached again with the same values (perhaps under a
+		 * different prefix) are then skipped immediately. This is worthwhile when later
+		 * variables depend upon only a few earlier variables.
+		 *
+		 * @param capacity The maximum number of nogoods retained.
+		 * @return The cache, from which hit and miss statistics can be obtained.
+		 */
+		public NogoodCache nogoods(int capacity) {
+			nogoods = new NogoodCache(capacity);
+			return nogoods;
+		}
+
+		/**
+		 * Get the nogood cache shared between iterators over this set, or
+		 * <code>null</code> if nogood caching is disabled.
+		 *
+		 * @return
+		 */
+		public NogoodCache getNogoods() {
+			return nogoods;
+		}
+
+		/**
+		 * Construct a cursor over the solutions of this constraint set. Unlike
+		 * <code>iterator()</code>, this does not apply the projection and allocates
+		 * nothing per solution. Instead, each solution is read in place from the
+		 * cursor.
+		 *
+		 * @return
+		 */
+		public Cursor cursor() {
+			return new Cursor(new InternalIterator<Void>(null, nogoods, toArray()), position);
+		}
+
+		/**
+		 * Deliver the solutions of this constraint set in batches, without applying
+		 * the projection. Each batch is a flat, row-major block of
+		 * <code>batchSize * n</code> integers, where <code>n</code> is the number of
+		 * declared variables, such that the value of variable <code>v</code> in the
+		 * <code>i</code>th solution is at index <code>(i * n) + v</code>. The block
+		 * is reused between batches, and is handed over each time it is full (and
+		 * finally when the solutions are exhausted).
+		 *
+		 * @param batchSize Maximum number of solutions in each batch.
+		 * @param consumer
+		 */
+		public void forEachBatch(int batchSize, IntBlockConsumer consumer) {
+			if (batchSize < 1) {
+				throw new IllegalArgumentException("invalid batch size");
+			}
+			InternalIterator<Void> it = new InternalIterator<>(null, nogoods, toArray());
+			final int n = it.constraints.length;
+			int[] block = new int[batchSize * n];
+			int count = 0;
+			while (it.values != null) {
+				if (position == null) {
+					System.arraycopy(it.values, 0, block, count * n, n);
+				} else {
+					for (int v = 0; v != n; ++v) {
+						block[(count * n) + v] = it.values[position[v]];
+					}
+				}
+				count = count + 1;
+				if (count == batchSize) {
+					consumer.accept(block, count);
+					count = 0;
+				}
+				it.values = it.nextSolution();
+			}
+			if (count != 0) {
+				consumer.accept(block, count);
+			}
+		}
+
+		/**
+		 * Compile this constraint set into an equivalent set which is faster to
+		 * enumerate. The constraint for each variable is flattened into a single
+		 * compiled constraint, such that its bounds are evaluated directly over the
+		 * array of values without going through conjunctions or the object graph of
+		 * variables. Constraints which cannot be compiled (e.g. user-defined
+		 * constraints) are retained and interpreted as before. The time taken to
+		 * compile is available from <code>getCompileTime()</code>.
+		 *
+		 * @return
+		 */
+		public Set<T> compile() {
+			long start = System.nanoTime();
+			Set<T> r = new Set<>(projection);
+			for (int i = 0; i != constraints.size(); ++i) {
+				r.constraints.add(CompiledConstraint.compile(constraints.get(i)));
+			}
+			r.propagators.addAll(propagators);
+			r.symmetries.addAll(symmetries);
+			r.position = position;
+			r.compileTime = System.nanoTime() - start;
+			return r;
+		}
+
+		/**
+		 * Construct an equivalent constraint set in which the constraint on each
+		 * variable is tightened to a static domain inferred from the whole set,
+		 * including any forward constraints. For example, a variable constrained only
+		 * by <code>lessOrEqual(x)</code> is given the upper bound of <code>x</code>'s
+		 * domain, and conjunctions of static ranges are folded together. Polynomial
+		 * bounds which can never be tight are dropped. Variables whose domain remains
+		 * unbounded are available from <code>getUnbounded()</code>. If the set is found
+		 * to have no solutions, the first variable is given an empty range.
+		 *
+		 * @see Presolve
+		 * @return
+		 */
+		public Set<T> presolve() {
+			Constraint[] array = constraints.toArray(new Constraint[constraints.size()]);
+			Presolve presolve = new Presolve(array, propagators.toArray(new Propagator[propagators.size()]));
+			Set<T> r = new Set<>(projection);
+			for (int v = 0; v != array.length; ++v) {
+				if (presolve.isFeasible()) {
+					r.constraints.add(presolve.restrict(v, array[v]));
+				} else {
+					r.constraints.add(v == 0 ? Constraints.between(1, 0) : array[v]);
+				}
+			}
+			r.propagators.addAll(propagators);
+			r.symmetries.addAll(symmetries);
+			r.position = position;
+			r.unbounded = presolve.isFeasible() ? presolve.unbounded() : new BitSet();
+			return r;
+		}
+
+		/**
+		 * Get the variables whose domain could not be bounded when this set was
+		 * presolved, or <code>null</code> if it was not produced by
+		 * <code>presolve()</code>. Enumerating a set with unbounded variables is
+		 * unlikely to terminate.
+		 *
+		 * @return
+		 */
+		public BitSet getUnbounded() {
+			if (unbounded == null || position == null) {
+				return unbounded == null ? null : (BitSet) unbounded.clone();
+			}
+			BitSet r = new BitSet();
+			for (int v = 0; v != position.length; ++v) {
+				if (unbounded.get(position[v])) {
+					r.set(v);
+				}
+			}
+			return r;
+		}
+
+		/**
+		 * Construct an equivalent constraint set which searches variables in a planned
+		 * order, rather than in declaration order. Solutions are still projected using
+		 * the declared layout, though the order in which they are produced may differ.
+		 * Built-in constraints are rewritten for the new layout, whilst user-defined
+		 * constraints must restore the declared layout each time they are evaluated.
+		 * Symmetric groups are carried across, as is nogood caching (though with an
+		 * empty cache, since nogoods are keyed on the search layout). No further
+		 * variables or forward constraints can be added to the planned set.
+		 *
+		 * @see Planner
+		 * @return
+		 */
+		public Set<T> plan() {
+			Planner<T> planner = new Planner<>(projection);
+			for (Constraint c : toArray()) {
+				planner.declare(c);
+			}
+			Set<T> r = planner.plan();
+			// Position of each variable of this set in the new search order
+			int[] moved = r.position;
+			for (int[] group : symmetries) {
+				int[] vars = new int[group.length];
+				for (int i = 0; i != group.length; ++i) {
+					vars[i] = moved[group[i]];
+				}
+				Arrays.sort(vars);
+				r.symmetries.add(vars);
+			}
+			if (position != null) {
+				int[] composed = new int[position.length];
+				for (int v = 0; v != position.length; ++v) {
+					composed[v] = moved[position[v]];
+				}
+				r.position = composed;
+			}
+			if (nogoods != null) {
+				r.nogoods = new NogoodCache(nogoods.getCapacity());
+			}
+			return r;
+		}
+
+		/**
+		 * Record that the variables of this set are searched in a planned order,
+		 * given the position of each declared variable in that order. The constraints
+		 * and projection must already be in the search layout.
+		 *
+		 * @param position
+		 */
+		void setPosition(int[] position) {
+			this.position = position;
+		}
+
+		/**
+		 * Get the position of a declared variable in the search order.
+		 *
+		 * @param v
+		 * @return
+		 */
+		private int position(int v) {
+			return position == null ? v : position[v];
+		}
+
+		/**
+		 * Convert an assignment from the declared layout into the search layout.
+		 *
+		 * @param assignment
+		 * @throws IllegalArgumentException if the assignment has the wrong length.
+		 * @return
+		 */
+		private int[] toSearch(int[] assignment) {
+			if (position == null) {
+				return assignment;
+			} else if (assignment.length != position.length) {
+				throw new IllegalArgumentException("invalid assignment length");
+			}
+			int[] r = new int[position.length];
+			for (int v = 0; v != position.length; ++v) {
+				r[position[v]] = assignment[v];
+			}
+			return r;
+		}
+
+		/**
+		 * Convert an assignment from the search layout into the declared layout.
+		 *
+		 * @param values
+		 * @return
+		 */
+		int[] toDeclared(int[] values) {
+			if (position == null) {
+				return values;
+			}
+			int[] r = new int[position.length];
+			for (int v = 0; v != position.length; ++v) {
+				r[v] = values[position[v]];
+			}
+			return r;
+		}
+
+		private void checkUnplanned() {
+			if (position != null) {
+				throw new IllegalStateException("cannot extend a planned constraint set");
+			}
+		}
+
+		/**
+		 * Get the time (in nanoseconds) taken to compile this constraint set, or zero
+		 * if it was not produced by <code>compile()</code>.
+		 *
+		 * @return
+		 */
+		public long getCompileTime() {
+			return compileTime;
+		}
+
+		/**
+		 * Act as a worker for a coordinator at a given address, enumerating the
+		 * subtrees of this constraint set which it hands out. This blocks until the
+		 * coordinator indicates that the enumeration is complete. The coordinator
+		 * must be enumerating an identical constraint set.
+		 *
+		 * @see Coordinator
+		 * @param host
+		 * @param port
+		 * @throws IOException
+		 */
+		public void work(String host, int port) throws IOException {
+			Constraint[] array = toArray();
+			try (Socket socket = new Socket(host, port)) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				Coordinator.Wire.send(out, Coordinator.HELLO, o -> {
+					o.writeLong(Checkpoint.fingerprint(array));
+					o.writeInt(array.length);
+				});
+				new RemoteWorker(array, in, out).run();
+			}
+		}
+
+		/**
+		 * Get the constraints on each declared variable, with some wrapped so as to
+		 * prune using interval look-ahead and to enforce any forward constraints.
+		 *
+		 * @return
+		 */
+		Constraint[] toArray() {
+			Constraint[] array = constraints.toArray(new Constraint[constraints.size()]);
+			array = Lookahead.apply(array);
+			return Propagation.apply(array, propagators.toArray(new Propagator[propagators.size()]));
+		}
+
+		@Override
+		public ResumableIterator<T> iterator() {
+			Constraint[] array = toArray();
+			return new InternalIterator<>(projection, nogoods, array);
+		}
+
+		/**
+		 * Construct an iterator which continues exactly where the iterator from which
+		 * a given checkpoint was taken had got to. The checkpoint must have been taken
+		 * from an iterator over an identical constraint set.
+		 *
+		 * @param checkpoint
+		 * @throws IllegalArgumentException if the checkpoint was taken from a different
+		 *                                  constraint set.
+		 * @return
+		 */
+		public ResumableIterator<T> resume(Checkpoint checkpoint) {
+			Constraint[] array = toArray();
+			if (checkpoint.limits.length != array.length) {
+				throw new IllegalArgumentException("checkpoint is for " + checkpoint.limits.length
+						+ " variables, not " + array.length);
+			} else if (checkpoint.fingerprint != Checkpoint.fingerprint(array)) {
+				throw new IllegalArgumentException("checkpoint is for a different constraint set");
+			}
+			int[] values = checkpoint.values == null ? null : checkpoint.values.clone();
+			InternalIterator<T> r = new InternalIterator<>(projection, nogoods, array, values,
+					checkpoint.lower.clone(), checkpoint.limits.clone(), checkpoint.floor);
+			r.primed = true;
+			return r;
+		}
+
+		/**
+		 * Construct an iterator which periodically saves a checkpoint to a given file.
+		 * If the file already exists, then iteration resumes from the checkpoint it
+		 * contains. Checkpoints are written atomically (via a temporary file), and a
+		 * final checkpoint is written once the iterator is exhausted.
+		 *
+		 * @param file     The file to which checkpoints are written.
+		 * @param interval The minimum time (in milliseconds) between checkpoints.
+		 * @throws UncheckedIOException     if the checkpoint file cannot be read or
+		 *                                  written.
+		 * @throws IllegalArgumentException if the interval is negative.
+		 * @return
+		 */
+		public ResumableIterator<T> checkpointedIterator(Path file, long interval) {
+			if (interval < 0) {
+				throw new IllegalArgumentException("invalid interval " + interval);
+			}
+			ResumableIterator<T> iterator;
+			if (Files.exists(file)) {
+				try {
+					iterator = resume(Checkpoint.load(file));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else {
+				iterator = iterator();
+			}
+			return new CheckpointingIterator<>(iterator, file, interval);
+		}
+
+		/**
+		 * Construct an iterator which starts from the solution with a given rank
+		 * (i.e. the <code>k</code>th solution, counting from zero) in the order given by
+		 * <code>iterator()</code>. This jumps directly to that solution using subtree
+		 * counts, rather than iterating through all earlier solutions.
+		 *
+		 * @param k
+		 * @return
+		 */
+		public Iterator<T> iteratorFrom(long k) {
+			Constraint[] array = toArray();
+			final int n = array.length;
+			int[] values = new int[n];
+			int[] lower = new int[n];
+			int[] limits = new int[n];
+			SubtreeCounter counter = new SubtreeCounter(array);
+			if (!counter.unrank(k, values, lower, limits)) {
+				values = null;
+			}
+			return new InternalIterator<>(projection, nogoods, array, values, lower, limits);
+		}
+
+		/**
+		 * Determine the rank of a given solution, that is the number of solutions
+		 * which come before it in the order given by <code>iterator()</code>. Thus,
+		 * <code>iteratorFrom(rank(s))</code> starts from <code>s</code>.
+		 *
+		 * @param assignment
+		 * @throws IllegalArgumentException if the assignment is not a solution.
+		 * @throws ArithmeticException      if the rank does not fit into a long.
+		 * @return
+		 */
+		public long rank(int[] assignment) {
+			Constraint[] array = toArray();
+			long r = new SubtreeCounter(array).rank(toSearch(assignment));
+			if (r == Long.MAX_VALUE) {
+				throw new ArithmeticException("rank overflow");
+			}
+			return r;
+		}
+
+		/**
+		 * Construct a constraint set which covers a given slice of the solutions of
+		 * this set. The solutions are divided into a given number of disjoint slices,
+		 * which are contiguous in lexicographic order and balanced by their estimated
+		 * size. Slices are computed deterministically, hence the same slice can be
+		 * computed independently on different machines. Taken together, the slices
+		 * cover every solution exactly once.
+		 *
+		 * @param index The slice to return, where <code>0 <= index < count</code>.
+		 * @param count The total number of slices.
+		 * @return
+		 */
+		public Set<T> shard(int index, int count) {
+			if (count < 1 || index < 0 || index >= count) {
+				throw new IllegalArgumentException("invalid shard " + index + " of " + count);
+			} else if (constraints.isEmpty()) {
+				throw new IllegalStateException("cannot shard an empty constraint set");
+			}
+			Constraint[] array = toArray();
+			int[][] bounds = new ShardPlanner(array).boundaries(count);
+			int[] from = bounds[index];
+			int[] to = bounds[index + 1];
+			Set<T> r = new Set<>(projection);
+			for (int i = 0; i != array.length; ++i) {
+				if ((from != null && i < from.length) || (to != null && i < to.length)) {
+					r.constraints.add(Constraints.and(array[i], new ShardPlanner.Slice(i, from, to)));
+				} else {
+					r.constraints.add(array[i]);
+				}
+			}
+			r.symmetries.addAll(symmetries);
+			r.position = position;
+			return r;
+		}
+
+		/**
+		 * Find the <code>k</code> solutions of this constraint set with the greatest
+		 * value of a given objective, in descending order of objective. Ties are
+		 * broken in favour of solutions which come first in the order given by
+		 * <code>iterator()</code>. Rather than enumerating every solution, subtrees
+		 * are pruned whenever interval arithmetic shows that the objective cannot
+		 * reach the <code>k</code>th best value found so far. Hence, pruning is only
+		 * effective when the variables read by the objective have bounded domains.
+		 *
+		 * @see BranchAndBound
+		 * @param objective
+		 * @param k
+		 * @return
+		 */
+		public List<T> topK(Variable objective, int k) {
+			BranchAndBound search = branchAndBound(objective, k);
+			if (search != null) {
+				InternalIterator<Void> it = branchAndBound(search);
+				while (it.hasNext()) {
+					it.next();
+				}
+			}
+			return project(search);
+		}
+
+		/**
+		 * Find the <code>k</code> solutions of this constraint set with the greatest
+		 * value of a given objective in parallel, using the common fork-join pool.
+		 *
+		 * @see #topK(Variable, int)
+		 * @param objective
+		 * @param k
+		 * @return
+		 */
+		public List<T> parallelTopK(Variable objective, int k) {
+			return parallelTopK(ForkJoinPool.commonPool(), objective, k);
+		}
+
+		/**
+		 * Find the <code>k</code> solutions of this constraint set with the greatest
+		 * value of a given objective in parallel, using a given fork-join pool. The
+		 * workers share a single incumbent bound, so a good solution found by one
+		 * immediately prunes the subtrees of the others. The result is the same as for
+		 * <code>topK()</code>.
+		 *
+		 * @param pool
+		 * @param objective
+		 * @param k
+		 * @return
+		 */
+		public List<T> parallelTopK(ForkJoinPool pool, Variable objective, int k) {
+			BranchAndBound search = branchAndBound(objective, k);
+			if (search != null) {
+				InternalSpliterator<Void> root = new InternalSpliterator<>(branchAndBound(search));
+				pool.invoke(new ForEachTask<>(null, root, x -> {
+				}));
+			}
+			return project(search);
+		}
+
+		/**
+		 * Construct the branch and bound search for a given objective, using the
+		 * static domains inferred by presolving this set. This returns
+		 * <code>null</code> if the set is found to have no solutions.
+		 *
+		 * @param objective
+		 * @param k
+		 * @return
+		 */
+		private BranchAndBound branchAndBound(Variable objective, int k) {
+			Constraint[] array = constraints.toArray(new Constraint[constraints.size()]);
+			Presolve presolve = new Presolve(array, propagators.toArray(new Propagator[propagators.size()]));
+			int[][] domains = presolve.domains();
+			if (position != null) {
+				objective = objective.remap(position);
+			}
+			BranchAndBound search = new BranchAndBound(objective, k, domains[0], domains[1]);
+			return presolve.isFeasible() ? search : null;
+		}
+
+		/**
+		 * Construct an iterator which offers every solution it finds to a given branch
+		 * and bound search, whilst pruning those subtrees which cannot improve upon
+		 * it.
+		 *
+		 * @param search
+		 * @return
+		 */
+		private InternalIterator<Void> branchAndBound(BranchAndBound search) {
+			return new InternalIterator<Void>(values -> {
+				search.offer(values);
+				return null;
+			}, null, search.apply(toArray()));
+		}
+
+		private List<T> project(BranchAndBound search) {
+			ArrayList<T> r = new ArrayList<>();
+			if (search != null) {
+				for (int[] values : search.solutions()) {
+					r.add(projection.apply(values));
+				}
+			}
+			return r;
+		}
+
+		/**
+		 * Construct a spliterator over the solutions of this constraint set. This can
+		 * be split at any depth of the search tree, and always splits at the shallowest
+		 * variable which has part of its range unexplored. Solutions are reported in
+		 * the same (lexicographic) order as for <code>iterator()</code>.
+		 */
+		@Override
+		public Spliterator<T> spliterator() {
+			return new InternalSpliterator<>((InternalIterator<T>) iterator());
+		}
+
+		/**
+		 * Apply a given action to every solution of this constraint set in parallel,
+		 * using the common fork-join pool. Solutions are passed to the action in no
+		 * particular order, and from multiple threads at once. Hence, the action must
+		 * be thread safe.
+		 *
+		 * @param action
+		 */
+		public void parallelForEach(Consumer<? super T> action) {
+			parallelForEach(ForkJoinPool.commonPool(), action);
+		}
+
+		/**
+		 * Apply a given action to every solution of this constraint set in parallel,
+		 * using a given fork-join pool. Work is split lazily, such that a worker only
+		 * splits off part of its subtree when there are not enough queued tasks to keep
+		 * the other workers busy. Thus, skewed search trees are still balanced across
+		 * workers.
+		 *
+		 * @param pool
+		 * @param action
+		 */
+		public void parallelForEach(ForkJoinPool pool, Consumer<? super T> action) {
+			InternalSpliterator<T> root = (InternalSpliterator<T>) spliterator();
+			pool.invoke(new ForEachTask<>(null, root, action));
+		}
+
+		/**
+		 * Count the number of solutions to this constraint set, without applying the
+		 * projection to any of them. The range of the last variable is counted
+		 * directly, rather than by stepping through each value in turn.
+		 *
+		 * @throws ArithmeticException if the count does not fit into a long (in which
+		 *                             case <code>bigCount()</code> should be used).
+		 * @return
+		 */
+		public long count() {
+			return bigCount().longValueExact();
+		}
+
+		/**
+		 * Count the number of solutions to this constraint set, without applying the
+		 * projection to any of them. This is the same as <code>count()</code>, except
+		 * that it cannot overflow.
+		 *
+		 * @return
+		 */
+		public BigInteger bigCount() {
+			Constraint[] array = toArray();
+			BigInteger count = BigInteger.ONE;
+			// Counts for independent components are simply multiplied
+			for (int[] component : components(array)) {
+				Constraint[] restricted = restrict(array, component);
+				count = count.multiply(new InternalIterator<Void>(null, nogoods, restricted).count());
+				if (count.signum() == 0) {
+					break;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Determine the independent components of this constraint set. That is, the
+		 * groups of variables such that no variable in one group depends (directly or
+		 * indirectly) upon any variable in another. Components are ordered by their
+		 * first variable, and the variables in each are in order of declaration.
+		 *
+		 * @return
+		 */
+		public int[][] components() {
+			int[][] components = components(toArray());
+			if (position != null) {
+				// Map each component back to declared variables
+				int[] order = new int[position.length];
+				for (int v = 0; v != position.length; ++v) {
+					order[position[v]] = v;
+				}
+				for (int[] component : components) {
+					for (int i = 0; i != component.length; ++i) {
+						component[i] = order[component[i]];
+					}
+					Arrays.sort(component);
+				}
+				Arrays.sort(components, (a, b) -> Integer.compare(a[0], b[0]));
+			}
+			return components;
+		}
+
+		/**
+		 * Construct an iterator over the solutions of this constraint set which
+		 * enumerates each independent component separately, and then produces their
+		 * Cartesian product. This avoids repeatedly enumerating the solutions of one
+		 * component for every solution of the others. Each component except the first
+		 * is enumerated once into a table, hence this requires memory proportional to
+		 * the number of solutions of those components.
+		 * <p>
+		 * Solutions are produced with the last component varying fastest. Thus, if
+		 * every component consists of consecutively declared variables, the order is
+		 * the same as for <code>iterator()</code>.
+		 * </p>
+		 *
+		 * @return
+		 */
+		public Iterator<T> productIterator() {
+			Constraint[] array = toArray();
+			int[][] components = components(array);
+			if (components.length <= 1) {
+				return iterator();
+			}
+			Cursor[] cursors = new Cursor[components.length];
+			for (int i = 0; i != components.length; ++i) {
+				Constraint[] restricted = restrict(array, components[i]);
+				cursors[i] = new Cursor(new InternalIterator<Void>(null, nogoods, restricted));
+			}
+			return new ProductIterator<>(projection, array.length, components, cursors);
+		}
+
+		/**
+		 * Determine the independent components of a given array of constraints, using
+		 * union-find over the dependencies of each variable.
+		 *
+		 * @param constraints
+		 * @return
+		 */
+		private static int[][] components(Constraint[] constraints) {
+			final int n = constraints.length;
+			int[] parent = new int[n];
+			for (int v = 0; v != n; ++v) {
+				parent[v] = v;
+				BitSet deps = new BitSet();
+				constraints[v].dependencies(v, deps);
+				for (int u = deps.nextSetBit(0); u >= 0 && u < v; u = deps.nextSetBit(u + 1)) {
+					// Union the components of u and v
+					int r = root(parent, u);
+					int s = root(parent, v);
+					parent[Math.max(r, s)] = Math.min(r, s);
+				}
+			}
+			// Group variables by root, where each root is the first variable in its component
+			int[] sizes = new int[n];
+			int count = 0;
+			for (int v = 0; v != n; ++v) {
+				int r = root(parent, v);
+				if (r == v) {
+					count = count + 1;
+				}
+				sizes[r]++;
+			}
+			int[][] components = new int[count][];
+			int[] index = new int[n];
+			int[] fill = new int[count];
+			for (int v = 0, i = 0; v != n; ++v) {
+				int r = root(parent, v);
+				if (r == v) {
+					index[v] = i;
+					components[i++] = new int[sizes[v]];
+				}
+				int c = index[r];
+				components[c][fill[c]++] = v;
+			}
+			return components;
+		}
+
+		private static int root(int[] parent, int v) {
+			while (parent[v] != v) {
+				parent[v] = parent[parent[v]];
+				v = parent[v];
+			}
+			return v;
+		}
+
+		/**
+		 * Restrict an array of constraints to the variables of a given component.
+		 * Variables outside the component are pinned to zero, which is safe since the
+		 * component never reads them. Variables after the last in the component are
+		 * dropped altogether, so that the last variable remains innermost.
+		 *
+		 * @param constraints
+		 * @param component
+		 * @return
+		 */
+		private static Constraint[] restrict(Constraint[] constraints, int[] component) {
+			if (component.length == constraints.length) {
+				return constraints;
+			}
+			Constraint[] restricted = new Constraint[component[component.length - 1] + 1];
+			Arrays.fill(restricted, PINNED);
+			for (int v : component) {
+				restricted[v] = constraints[v];
+			}
+			return restricted;
+		}
+
+		/**
+		 * Count the number of solutions to this constraint set in parallel using the
+		 * common fork-join pool.
+		 *
+		 * @return
+		 */
+		public BigInteger parallelCount() {
+			return parallelCount(ForkJoinPool.commonPool());
+		}
+
+		/**
+		 * Count the number of solutions to this constraint set in parallel using a
+		 * given fork-join pool. The search tree is split lazily into subtrees as for
+		 * <code>parallelForEach()</code>, and the counts for each subtree are then
+		 * combined.
+		 *
+		 * @param pool
+		 * @return
+		 */
+		public BigInteger parallelCount(ForkJoinPool pool) {
+			return pool.invoke(new CountTask<>((InternalIterator<T>) iterator()));
+		}
+
+		/**
+		 * Construct an iterator which enumerates solutions in parallel, whilst still
+		 * returning them in exactly the same order as <code>iterator()</code>. This
+		 * uses one worker thread per available processor.
+		 *
+		 * @return
+		 */
+		public CloseableIterator<T> parallelIterator() {
+			return parallelIterator(Runtime.getRuntime().availableProcessors(), 64);
+		}
+
+		/**
+		 * Construct an iterator which enumerates solutions in parallel, whilst still
+		 * returning them in exactly the same order as <code>iterator()</code>. The
+		 * search space is divided into disjoint lexicographic shards which are
+		 * enumerated concurrently by a given number of worker threads. The output of
+		 * each shard is held in a bounded buffer until the consumer reaches it. Note
+		 * that the projection is applied on the worker threads, and hence must be
+		 * thread safe. A consumer which stops before the iterator is exhausted should
+		 * close it, so that the workers stop straight away. Otherwise, they stop once
+		 * the iterator has been garbage collected.
+		 *
+		 * @param threads  Number of worker threads to use.
+		 * @param capacity Maximum number of chunks of solutions buffered per shard.
+		 * @return
+		 */
+		public CloseableIterator<T> parallelIterator(int threads, int capacity) {
+			if (threads < 1 || capacity < 1) {
+				throw new IllegalArgumentException("invalid number of threads or capacity");
+			}
+			return new OrderedIterator<>((InternalIterator<T>) iterator(), threads, capacity);
+		}
+	}
+
+	/**
+	 * An iterator which may hold resources (such as worker threads) that should be
+	 * released if it is abandoned before being exhausted.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+		/**
+		 * Release any resources held by this iterator. Once closed, an iterator
+		 * returns no further items.
+		 */
+		@Override
+		void close();
+	}
+
+	/**
+	 * An iterator which enumerates disjoint shards of the search space
+	 * concurrently, and then merges their outputs back in sequential order. Each
+	 * shard delivers solutions in fixed-size chunks through a bounded queue, such
+	 * that workers block once they get too far ahead of the consumer. Workers stop
+	 * when the iterator is closed and, since they only hold a weak reference to
+	 * it, when it is no longer reachable.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	private static class OrderedIterator<T> implements CloseableIterator<T> {
+		/**
+		 * Number of solutions delivered together in a single chunk.
+		 */
+		private static final int CHUNK = 256;
+		/**
+		 * Number of shards to create per worker thread.
+		 */
+		private static final int SHARDS_PER_THREAD = 8;
+		/**
+		 * Time (in milliseconds) a worker waits on a full buffer before checking
+		 * whether the iterator has been abandoned.
+		 */
+		private static final long PATIENCE = 100;
+		/**
+		 * Marks the end of a shard's output.
+		 */
+		private static final Object[] END = new Object[0];
+
+		private final ArrayList<Shard<T>> shards;
+		private final ExecutorService executor;
+		/**
+		 * Index of the shard currently being consumed.
+		 */
+		private int index;
+		/**
+		 * The chunk currently being consumed, or <code>null</code> if the next chunk
+		 * has not yet been fetched.
+		 */
+		private Object[] chunk;
+		/**
+		 * Position within the current chunk.
+		 */
+		private int position;
+
+		public OrderedIterator(InternalIterator<T> root, int threads, int capacity) {
+			ArrayList<InternalIterator<T>> parts = partition(root, threads * SHARDS_PER_THREAD);
+			this.shards = new ArrayList<>();
+			this.executor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, "jsmt-ordered-worker");
+				t.setDaemon(true);
+				return t;
+			});
+			// NOTE: workers must not hold a strong reference to this iterator
+			WeakReference<OrderedIterator<T>> owner = new WeakReference<>(this);
+			// Shards are submitted in order, hence are started in order
+			for (int i = 0; i != parts.size(); ++i) {
+				Shard<T> shard = new Shard<>(parts.get(i), capacity, owner);
+				shards.add(shard);
+				executor.execute(shard);
+			}
+			executor.shutdown();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (index < shards.size()) {
+				if (chunk == null) {
+					chunk = shards.get(index).take();
+					position = 0;
+				}
+				if (chunk == END) {
+					// Move onto next shard
+					chunk = null;
+					index = index + 1;
+				} else if (position < chunk.length) {
+					return true;
+				} else {
+					chunk = null;
+				}
+			}
+			return false;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return (T) chunk[position++];
+		}
+
+		@Override
+		public void close() {
+			for (Shard<T> shard : shards) {
+				shard.cancelled = true;
+			}
+			// Interrupt workers blocked on a full buffer, and drop unstarted shards
+			executor.shutdownNow();
+			index = shards.size();
+			chunk = null;
+		}
+
+		/**
+		 * Partition the search space into (roughly) a given number of disjoint shards,
+		 * which are returned in lexicographic order. At each step, the shard with the
+		 * largest estimated size is split.
+		 *
+		 * @param root
+		 * @param n
+		 * @return
+		 */
+		private static <T> ArrayList<InternalIterator<T>> partition(InternalIterator<T> root, int n) {
+			ArrayList<InternalIterator<T>> parts = new ArrayList<>();
+			parts.add(root);
+			while (parts.size() < n) {
+				int largest = 0;
+				for (int i = 1; i < parts.size(); ++i) {
+					if (parts.get(i).estimateSize() > parts.get(largest).estimateSize()) {
+						largest = i;
+					}
+				}
+				InternalIterator<T> lower = parts.get(largest).split();
+				if (lower == null) {
+					break;
+				}
+				parts.add(largest, lower);
+			}
+			return parts;
+		}
+
+		/**
+		 * Responsible for enumerating a single shard of the search space into a
+		 * bounded buffer.
+		 *
+		 * @param <T>
+		 */
+		private static class Shard<T> implements Runnable {
+			private final InternalIterator<T> iterator;
+			private final ArrayBlockingQueue<Object[]> buffer;
+			private final WeakReference<?> owner;
+			private volatile RuntimeException failure;
+			private volatile boolean cancelled;
+
+			public Shard(InternalIterator<T> iterator, int capacity, WeakReference<?> owner) {
+				this.iterator = iterator;
+				this.buffer = new ArrayBlockingQueue<>(capacity);
+				this.owner = owner;
+			}
+
+			@Override
+			public void run() {
+				try {
+					Object[] chunk = new Object[CHUNK];
+					int n = 0;
+					try {
+						while (!cancelled && iterator.hasNext()) {
+							chunk[n++] = iterator.next();
+							if (n == CHUNK) {
+								if (!put(chunk)) {
+									return;
+								}
+								chunk = new Object[CHUNK];
+								n = 0;
+							}
+						}
+						if (n != 0 && !put(Arrays.copyOf(chunk, n))) {
+							return;
+						}
+					} catch (RuntimeException e) {
+						failure = e;
+					}
+					put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			/**
+			 * Add a chunk to the buffer, waiting whilst it is full unless the iterator
+			 * has been closed or abandoned.
+			 *
+			 * @param chunk
+			 * @return <code>false</code> if the iterator was closed or abandoned.
+			 * @throws InterruptedException
+			 */
+			private boolean put(Object[] chunk) throws InterruptedException {
+				while (!buffer.offer(chunk, PATIENCE, TimeUnit.MILLISECONDS)) {
+					if (cancelled || owner.get() == null) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			public Object[] take() {
+				try {
+					Object[] chunk = buffer.take();
+					if (chunk == END && failure != null) {
+						throw failure;
+					}
+					return chunk;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An iterator whose position can be exported as a checkpoint, such that
+	 * enumeration can later be resumed from that position using
+	 * <code>Constraint.Set.resume()</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	public interface ResumableIterator<T> extends Iterator<T> {
+		/**
+		 * Take a checkpoint of this iterator's current position.
+		 *
+		 * @return
+		 */
+		Checkpoint checkpoint();
+	}
+
+	/**
+	 * Captures the position of an iterator over a constraint set. This consists of
+	 * the next solution to be returned (or <code>null</code> if there are none),
+	 * the lower bound and limit for each variable, and a fingerprint identifying
+	 * the constraint set itself.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Checkpoint implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private static final int MAGIC = 0x4a534d54;
+		private final int[] values;
+		private final int[] lower;
+		private final int[] limits;
+		private final int floor;
+		private final long fingerprint;
+
+		private Checkpoint(int[] values, int[] lower, int[] limits, int floor, long fingerprint) {
+			this.values = values;
+			this.lower = lower;
+			this.limits = limits;
+			this.floor = floor;
+			this.fingerprint = fingerprint;
+		}
+
+		/**
+		 * Check whether the iterator had been exhausted when this checkpoint was taken.
+		 *
+		 * @return
+		 */
+		public boolean isExhausted() {
+			return values == null;
+		}
+
+		/**
+		 * Write this checkpoint in a compact binary form to a given stream.
+		 *
+		 * @param output
+		 * @throws IOException
+		 */
+		public void write(OutputStream output) throws IOException {
+			DataOutputStream out = new DataOutputStream(output);
+			out.writeInt(MAGIC);
+			out.writeLong(fingerprint);
+			out.writeInt(limits.length);
+			out.writeInt(floor);
+			out.writeBoolean(values != null);
+			for (int i = 0; i != limits.length; ++i) {
+				out.writeInt(values == null ? 0 : values[i]);
+				out.writeInt(lower[i]);
+				out.writeInt(limits[i]);
+			}
+			out.flush();
+		}
+
+		/**
+		 * Read a checkpoint in the form written by <code>write()</code> from a given
+		 * stream.
+		 *
+		 * @param input
+		 * @throws IOException
+		 * @return
+		 */
+		public static Checkpoint read(InputStream input) throws IOException {
+			DataInputStream in = new DataInputStream(input);
+			if (in.readInt() != MAGIC) {
+				throw new IOException("invalid checkpoint");
+			}
+			long fingerprint = in.readLong();
+			int n = in.readInt();
+			int floor = in.readInt();
+			if (n < 0 || floor < 0 || (n > 0 && floor >= n)) {
+				throw new IOException("invalid checkpoint");
+			}
+			boolean exhausted = !in.readBoolean();
+			int[] values = new int[n];
+			int[] lower = new int[n];
+			int[] limits = new int[n];
+			for (int i = 0; i != n; ++i) {
+				values[i] = in.readInt();
+				lower[i] = in.readInt();
+				limits[i] = in.readInt();
+			}
+			return new Checkpoint(exhausted ? null : values, lower, limits, floor, fingerprint);
+		}
+
+		/**
+		 * Atomically save this checkpoint to a given file. The checkpoint is first
+		 * written to a temporary file alongside, which then replaces the original.
+		 *
+		 * @param file
+		 * @throws IOException
+		 */
+		public void save(Path file) throws IOException {
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				write(out);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		/**
+		 * Load a checkpoint from a given file.
+		 *
+		 * @param file
+		 * @throws IOException
+		 * @return
+		 */
+		public static Checkpoint load(Path file) throws IOException {
+			try (InputStream in = Files.newInputStream(file)) {
+				return read(in);
+			}
+		}
+
+		/**
+		 * Compute a fingerprint for a given array of constraints. Propagators are
+		 * folded in through the constraints wrapped to enforce them, as are symmetry
+		 * groups through the ordering constraints they add.
+		 *
+		 * @param constraints
+		 * @return
+		 */
+		static long fingerprint(Constraint[] constraints) {
+			long h = CompiledConstraint.mix(0xcbf29ce484222325L, constraints.length);
+			for (int i = 0; i != constraints.length; ++i) {
+				h = CompiledConstraint.mix(h, constraints[i].fingerprint());
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * An iterator which periodically saves a checkpoint of another to a given
+	 * file. The clock is only consulted every so often, to keep the overhead per
+	 * solution low.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	private static class CheckpointingIterator<T> implements ResumableIterator<T> {
+		/**
+		 * Number of solutions between checks of the clock.
+		 */
+		private static final int STRIDE = 1024;
+		private final ResumableIterator<T> iterator;
+		private final Path file;
+		private final long interval;
+		private long last;
+		private int steps;
+		private boolean finished;
+
+		public CheckpointingIterator(ResumableIterator<T> iterator, Path file, long interval) {
+			this.iterator = iterator;
+			this.file = file;
+			// NOTE: saturates rather than overflowing for very long intervals
+			this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+			this.last = System.nanoTime();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (iterator.hasNext()) {
+				return true;
+			} else if (!finished) {
+				finished = true;
+				save();
+			}
+			return false;
+		}
+
+		@Override
+		public T next() {
+			T item = iterator.next();
+			if (++steps == STRIDE) {
+				steps = 0;
+				long now = System.nanoTime();
+				if (now - last >= interval) {
+					save();
+					last = now;
+				}
+			}
+			return item;
+		}
+
+		@Override
+		public Checkpoint checkpoint() {
+			return iterator.checkpoint();
+		}
+
+		private void save() {
+			try {
+				iterator.checkpoint().save(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Executes the subtrees handed out by a coordinator. Whilst executing a
+	 * subtree, the worker periodically checks for steal requests (as it enters
+	 * variables during the search), in response to which it splits off the upper
+	 * part of its shallowest unexplored range and sends that back to the
+	 * coordinator.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class RemoteWorker implements Monitor {
+		/**
+		 * Number of search nodes between checks for steal requests.
+		 */
+		private static final int STRIDE = 1024;
+		/**
+		 * Maximum number of solutions sent back in one message.
+		 */
+		private static final int BATCH = 1024;
+		private final Constraint[] constraints;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private boolean emit;
+		/**
+		 * Number of search nodes visited since steal requests were last checked.
+		 */
+		private int steps;
+
+		public RemoteWorker(Constraint[] constraints, DataInputStream in, DataOutputStream out) {
+			this.constraints = constraints;
+			this.in = in;
+			this.out = out;
+		}
+
+		public void run() throws IOException {
+			while (true) {
+				byte kind = in.readByte();
+				DataInputStream body = Coordinator.Wire.readBody(in);
+				switch (kind) {
+				case Coordinator.START:
+					emit = body.readBoolean();
+					break;
+				case Coordinator.TASK:
+					try {
+						execute(Coordinator.Task.read(body));
+					} catch (UncheckedIOException e) {
+						throw e.getCause();
+					}
+					break;
+				case Coordinator.STEAL:
+					// Nothing to steal when idle
+					Coordinator.Wire.send(out, Coordinator.SPLIT, o -> o.writeBoolean(false));
+					break;
+				case Coordinator.FINISH:
+					return;
+				default:
+					throw new IOException("unknown message " + kind);
+				}
+			}
+		}
+
+		private void execute(Coordinator.Task task) throws IOException {
+			final int n = constraints.length;
+			int[] values = Arrays.copyOf(task.prefix, n);
+			int[] lower = new int[n];
+			int[] limits = new int[n];
+			lower[task.depth] = task.lo;
+			limits[task.depth] = task.hi;
+			InternalIterator<Void> it = new InternalIterator<>(null, null, constraints, values, lower, limits, task.depth);
+			it.monitor = this;
+			BigInteger total = BigInteger.ZERO;
+			long count = 0;
+			int[] batch = new int[BATCH * n];
+			int size = 0;
+			while (it.hasNext()) {
+				if (emit) {
+					System.arraycopy(it.values, 0, batch, size * n, n);
+					size = size + 1;
+					if (size == BATCH) {
+						sendSolutions(batch, size);
+						size = 0;
+					}
+					count = count + 1;
+					it.values = it.nextSolution();
+				} else {
+					count = count + it.skipRange();
+				}
+				if (count < 0 || count > Long.MAX_VALUE / 2) {
+					total = total.add(BigInteger.valueOf(count));
+					count = 0;
+				}
+			}
+			sendSolutions(batch, size);
+			byte[] result = total.add(BigInteger.valueOf(count)).toByteArray();
+			Coordinator.Wire.send(out, Coordinator.DONE, o -> {
+				o.writeInt(result.length);
+				o.write(result);
+			});
+		}
+
+		@Override
+		public void poll(InternalIterator<?> iterator, int v) {
+			if (++steps == STRIDE) {
+				steps = 0;
+				try {
+					while (in.available() > 0) {
+						steal(iterator, v);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		/**
+		 * Respond to a steal request received whilst executing a task. The upper part
+		 * of the shallowest unexplored range of the iterator is sent back to the
+		 * coordinator, and the worker continues with the remainder.
+		 *
+		 * @param iterator
+		 * @param v        The variable which the search is entering.
+		 * @throws IOException
+		 */
+		private void steal(InternalIterator<?> iterator, int v) throws IOException {
+			byte kind = in.readByte();
+			Coordinator.Wire.readBody(in);
+			if (kind != Coordinator.STEAL) {
+				throw new IOException("unexpected message " + kind);
+			}
+			Coordinator.Task t = iterator.donate(v);
+			Coordinator.Wire.send(out, Coordinator.SPLIT, o -> {
+				o.writeBoolean(t != null);
+				if (t != null) {
+					t.write(o);
+				}
+			});
+		}
+
+		private void sendSolutions(int[] batch, int size) throws IOException {
+			if (size != 0) {
+				final int n = constraints.length;
+				Coordinator.Wire.send(out, Coordinator.SOLUTIONS, o -> {
+					o.writeInt(size);
+					for (int i = 0; i != size * n; ++i) {
+						o.writeInt(batch[i]);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Accepts a block of solutions produced by
+	 * <code>Constraint.Set.forEachBatch()</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface IntBlockConsumer {
+		/**
+		 * Accept a block of solutions stored row-major. Only the first
+		 * <code>count</code> rows are valid, and the block should not be retained after
+		 * this method returns since it will be overwritten by the next batch.
+		 *
+		 * @param block
+		 * @param count
+		 */
+		void accept(int[] block, int count);
+	}
+
+	/**
+	 * Provides an allocation-free way of enumerating the raw solutions of a
+	 * constraint set. The cursor is positioned before the first solution, and
+	 * <code>advance()</code> moves it onto each solution in turn. The assignment
+	 * is then read in place using <code>get()</code>, whilst
+	 * <code>changedFrom()</code> identifies which part of it changed. Thus, callers
+	 * can rebuild only those parts of their own state which depend on the changed
+	 * variables.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Cursor {
+		private final InternalIterator<Void> engine;
+		/**
+		 * For each declared variable, its position in the search order, or
+		 * <code>null</code> if variables are searched in declaration order.
+		 */
+		private final int[] position;
+		/**
+		 * For each position in the search order, the least declared variable searched
+		 * there or later, or <code>null</code> if variables are searched in
+		 * declaration order.
+		 */
+		private final int[] least;
+		/**
+		 * The shallowest variable whose value changed in the last step, or
+		 * <code>-1</code> if the cursor is not on a solution.
+		 */
+		private int changed;
+		private boolean started;
+
+		private Cursor(InternalIterator<Void> engine) {
+			this(engine, null);
+		}
+
+		private Cursor(InternalIterator<Void> engine, int[] position) {
+			this.engine = engine;
+			this.position = position;
+			this.changed = -1;
+			if (position == null) {
+				this.least = null;
+			} else {
+				final int n = position.length;
+				this.least = new int[n + 1];
+				least[n] = n;
+				for (int v = 0; v != n; ++v) {
+					least[position[v]] = v;
+				}
+				for (int p = n - 1; p >= 0; --p) {
+					least[p] = Math.min(least[p], least[p + 1]);
+				}
+			}
+		}
+
+		/**
+		 * Move this cursor onto the next solution (or the first solution if it has not
+		 * been advanced before).
+		 *
+		 * @return <code>false</code> if there are no more solutions.
+		 */
+		public boolean advance() {
+			if (!started) {
+				started = true;
+				changed = engine.values == null ? -1 : 0;
+			} else if (changed >= 0) {
+				changed = engine.search(engine.values.length, true, false);
+			}
+			return changed >= 0;
+		}
+
+		/**
+		 * Get the value of a given variable in the current solution.
+		 *
+		 * @param var
+		 * @return
+		 */
+		public int get(int var) {
+			return engine.values[position == null ? var : position[var]];
+		}
+
+		/**
+		 * Get the shallowest variable whose value changed in the last step. All
+		 * variables below this have the same value as in the previous solution. For the
+		 * first solution, this is always <code>0</code>. For a planned set, variables
+		 * are searched out of declaration order and so this is the least variable
+		 * searched no earlier than the shallowest one which changed.
+		 *
+		 * @return
+		 */
+		public int changedFrom() {
+			return least == null || changed < 0 ? changed : least[changed];
+		}
+
+		/**
+		 * Get the number of variables in each solution.
+		 *
+		 * @return
+		 */
+		public int size() {
+			return engine.constraints.length;
+		}
+	}
+
+	/**
+	 * A fork-join task which applies a given action to every solution of a
+	 * spliterator, splitting off and forking subtasks whenever the current worker
+	 * is running low on queued work.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	private static class ForEachTask<T> extends CountedCompleter<Void> {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Number of solutions to process between checks for splitting.
+		 */
+		private static final int BATCH = 64;
+		private final InternalSpliterator<T> spliterator;
+		private final Consumer<? super T> action;
+
+		public ForEachTask(ForEachTask<T> parent, InternalSpliterator<T> spliterator, Consumer<? super T> action) {
+			super(parent);
+			this.spliterator = spliterator;
+			this.action = action;
+		}
+
+		@Override
+		public void compute() {
+			boolean more = true;
+			while (more) {
+				// Split whilst other workers are likely to be idle
+				while (getSurplusQueuedTaskCount() < 2) {
+					InternalSpliterator<T> split = spliterator.trySplit();
+					if (split == null) {
+						break;
+					}
+					addToPendingCount(1);
+					new ForEachTask<>(this, split, action).fork();
+				}
+				for (int i = 0; i != BATCH && more; ++i) {
+					more = spliterator.tryAdvance(action);
+				}
+			}
+			tryComplete();
+		}
+	}
+
+	/**
+	 * A fork-join task which counts the solutions remaining in an iterator,
+	 * splitting off and forking subtasks whenever the current worker is running low
+	 * on queued work.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	private static class CountTask<T> extends RecursiveTask<BigInteger> {
+		private static final long serialVersionUID = 1L;
+		private final InternalIterator<T> iterator;
+
+		public CountTask(InternalIterator<T> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		protected BigInteger compute() {
+			ArrayList<CountTask<T>> forks = new ArrayList<>();
+			while (getSurplusQueuedTaskCount() < 2) {
+				InternalIterator<T> split = iterator.split();
+				if (split == null) {
+					break;
+				}
+				CountTask<T> task = new CountTask<>(split);
+				task.fork();
+				forks.add(task);
+			}
+			BigInteger count = iterator.count();
+			for (int i = 0; i != forks.size(); ++i) {
+				count = count.add(forks.get(i).join());
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Provides a splittable view of an internal iterator. Splitting divides the
+	 * unexplored portion of the search tree into two disjoint subtrees, where the
+	 * split off part always comes before the remaining part in lexicographic order.
+	 *
+	 * @author David J. Pearce
+	 *
+	 * @param <T>
+	 */
+	private static class InternalSpliterator<T> implements Spliterator<T> {
+		private final InternalIterator<T> iterator;
 
-		public Set(Function<int[], T> projection) {
-			this.projection = projection;
+		public InternalSpliterator(InternalIterator<T> iterator) {
+			this.iterator = iterator;
 		}
 
-		/**
-		 * Add a new variable to the constraint set. This returns a handle through which
-		 * we can interact with the allocated variable in creating subsequent downstream
-		 * constraints.
-		 *
-		 * @param constraint
-		 * @return
-		 */
-		public Variable declare(Constraint constraint) {
-			int n = constraints.size();
-			constraints.add(constraint);
-			return new Variable(1, n);
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (iterator.hasNext()) {
+				action.accept(iterator.next());
+				return true;
+			} else {
+				return false;
+			}
 		}
 
 		@Override
-		public Iterator<T> iterator() {
-			Constraint[] array = constraints.toArray(new Constraint[constraints.size()]);
-			return new InternalIterator<>(projection, array);
+		public void forEachRemaining(Consumer<? super T> action) {
+			while (iterator.hasNext()) {
+				action.accept(iterator.next());
+			}
+		}
+
+		@Override
+		public InternalSpliterator<T> trySplit() {
+			InternalIterator<T> split = iterator.split();
+			return split == null ? null : new InternalSpliterator<>(split);
+		}
+
+		@Override
+		public long estimateSize() {
+			return iterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.IMMUTABLE;
 		}
 	}
 
+	/**
+	 * Observes the progress of the search performed by an internal iterator. This
+	 * is polled at every node of the search tree, that is as each variable is
+	 * entered and as each solution is reached. These are the points at which the
+	 * iterator can give away part of its unexplored search space.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private interface Monitor {
+		/**
+		 * Called as the search enters a given variable (or reaches a solution, if this
+		 * is the number of variables), when all earlier variables have been assigned.
+		 *
+		 * @param iterator
+		 * @param v
+		 */
+		void poll(InternalIterator<?> iterator, int v);
+	}
+
 	/**
 	 * Represents a set of constraints over one or more variables. This provides the
 	 * mechanism for efficiently iterating solutions to the constraints.
@@ -76,7 +2108,7 @@ public abstract class Constraint {
 	 *
 	 * @param <T>
 	 */
-    private static class InternalIterator<T> implements Iterator<T> {
+    private static class InternalIterator<T> implements ResumableIterator<T> {
     	/**
     	 * A simple project which takes a matching solution and converts it into some
     	 * desirable object.
@@ -92,34 +2124,209 @@ public abstract class Constraint {
     	 * Represents the current limit for each variable. This determines when the
     	 * current range is exhausted.
     	 */
-    	private final int[] limits;
+    	private int[] limits;
+		/**
+		 * Represents the lower bound for each variable, as determined when its current
+		 * range was entered. Together with <code>limits</code> this gives the full
+		 * range currently being explored for each variable.
+		 */
+		private int[] lower;
 
     	/**
     	 * Identifiers a constraints for each variable.
     	 */
     	private final Constraint[] constraints;
 
+		/**
+		 * Identifies the variables which the constraint on each variable depends
+		 * upon. This is used to backjump over variables which cannot be responsible for
+		 * a failure.
+		 */
+		private final BitSet[] dependencies;
+
+		/**
+		 * Indicates, for each variable, whether its constraint may not permit every
+		 * value in its range. Such ranges are stepped through using
+		 * <code>nextValue()</code>.
+		 */
+		private final boolean[] sparse;
+
+		/**
+		 * Cache of subtrees known to contain no solutions, or <code>null</code> if
+		 * nogoods are not being cached.
+		 */
+		private final NogoodCache nogoods;
+
+		/**
+		 * For each variable, the earlier variables upon which the subtree rooted at
+		 * that variable depends. This is only needed when caching nogoods.
+		 */
+		private final BitSet[] frontiers;
+
+		/**
+		 * For each variable, the variables responsible for failures of later variables
+		 * which have backjumped to it since its current range was entered. This is
+		 * allocated lazily for each variable.
+		 */
+		private BitSet[] conflicts;
+
+		/**
+		 * For each variable, the epoch at which its current range was entered. The
+		 * epoch is incremented every time a range is entered.
+		 */
+		private long[] entered;
+
+		private long epoch;
+
+		/**
+		 * The epoch at which the most recent solution was found. Thus, a solution has
+		 * been found within the current range of a variable if this is not before the
+		 * epoch at which that range was entered.
+		 */
+		private long solved;
+
+		/**
+		 * The deepest variable upon which the constraint for each variable depends, or
+		 * <code>-1</code> if it depends upon none.
+		 */
+		private final int[] deepest;
+
+		/**
+		 * For each variable, the time at which its value last changed. Time is
+		 * measured by a clock which is incremented whenever a variable changes value,
+		 * or the bounds of a variable are computed.
+		 */
+		private long[] modified;
+
+		/**
+		 * For each variable, the latest time at which it or any earlier variable
+		 * changed value. This is maintained as each variable is assigned, which always
+		 * happens after all earlier variables have been assigned.
+		 */
+		private long[] latest;
+
+		/**
+		 * For each variable, the time at which its bounds (as held in
+		 * <code>lower</code> and <code>limits</code>) were last computed, or zero if
+		 * they must be recomputed. The bounds remain valid until a variable at or
+		 * before the deepest one they depend upon changes value.
+		 */
+		private long[] computed;
+
+		private long clock;
+
+		/**
+		 * Identifies the shallowest variable which this iterator may advance. All
+		 * variables below this are fixed by the prefix from which this iterator was
+		 * split off.
+		 */
+		private int floor;
+
+		/**
+		 * Indicates whether or not the least solution has been found yet. Iterators
+		 * which are split off are primed lazily, so that the search happens in the
+		 * thread which consumes them.
+		 */
+		private boolean primed;
+
+		/**
+		 * Number of solutions counted in counting mode, along with any overflow from
+		 * this.
+		 */
+		private long tally;
+		private BigInteger carry = BigInteger.ZERO;
+
+		/**
+		 * Polled at every node of the search, or <code>null</code> if the search is
+		 * not being monitored.
+		 */
+		private Monitor monitor;
+
     	/**
 		 * Construct a constraint system for a given number of variables, where each
 		 * constraint corresponds to a given variable. A projection function is provided
 		 * for extracting solutions.
 		 *
 		 * @param proj
+		 * @param nogoods
 		 * @param constraints
 		 */
-    	public InternalIterator(Function<int[],T> proj, Constraint... constraints) {
-			final int n = constraints.length;
-    		//
-			this.projection = proj;
-    		this.values = new int[n];
-    		this.limits = new int[n];
-    		this.constraints = constraints;
+		public InternalIterator(Function<int[], T> proj, NogoodCache nogoods, Constraint... constraints) {
+			this(proj, nogoods, constraints, new int[constraints.length], new int[constraints.length],
+					new int[constraints.length], 0);
+			this.primed = true;
     		// Find least solution (if one exists)
-    		values = findLeastSolution(0, constraints, values, limits);
+    		values = findLeastSolution(0);
     	}
 
+		/**
+		 * Construct an iterator positioned at a given solution (or which is empty if
+		 * this is <code>null</code>), where the lower bounds and limits for each
+		 * variable have already been determined.
+		 *
+		 * @param proj
+		 * @param nogoods
+		 * @param constraints
+		 * @param values
+		 * @param lower
+		 * @param limits
+		 */
+		private InternalIterator(Function<int[], T> proj, NogoodCache nogoods, Constraint[] constraints,
+				int[] values, int[] lower, int[] limits) {
+			this(proj, nogoods, constraints, values, lower, limits, 0);
+			this.primed = true;
+		}
+
+		/**
+		 * Construct an iterator over the subtree where all variables below the floor
+		 * are fixed by a given prefix, and the floor variable ranges over its given
+		 * lower bound and limit (inclusive).
+		 *
+		 * @param proj
+		 * @param nogoods
+		 * @param constraints
+		 * @param values
+		 * @param lower
+		 * @param limits
+		 * @param floor
+		 */
+		private InternalIterator(Function<int[], T> proj, NogoodCache nogoods, Constraint[] constraints,
+				int[] values, int[] lower, int[] limits, int floor) {
+			this(proj, nogoods, constraints, dependencies(constraints), values, lower, limits, floor);
+		}
+
+		private InternalIterator(Function<int[], T> proj, NogoodCache nogoods, Constraint[] constraints,
+				BitSet[] dependencies, int[] values, int[] lower, int[] limits, int floor) {
+			final int n = constraints.length;
+			this.projection = proj;
+			this.values = values;
+			this.lower = lower;
+			this.limits = limits;
+			this.constraints = constraints;
+			this.dependencies = dependencies;
+			this.sparse = new boolean[n];
+			for (int i = 0; i != n; ++i) {
+				sparse[i] = constraints[i].isSparse();
+			}
+			this.nogoods = nogoods;
+			this.frontiers = nogoods == null ? null : frontiers(dependencies);
+			this.conflicts = new BitSet[n];
+			// NOTE: every range is initially considered to contain a solution, which
+			// prevents backjumping until ranges are entered afresh.
+			this.entered = new long[n];
+			this.deepest = deepest(dependencies);
+			this.modified = new long[n];
+			this.latest = new long[n];
+			this.computed = new long[n];
+			this.floor = floor;
+			this.primed = false;
+		}
+
     	@Override
 		public boolean hasNext() {
+			if (!primed) {
+				prime();
+			}
     		return values != null;
     	}
 
@@ -130,58 +2337,509 @@ public abstract class Constraint {
     	 */
     	@Override
 		public T next() {
+			if (!primed) {
+				prime();
+			}
     		T val = projection.apply(values);
-    		values = nextSolution(constraints, values, limits);
+    		values = nextSolution();
     		return val;
     	}
 
-		private static int[] nextSolution(Constraint[] constraints, int[] values, int[] limits) {
-			int n = values.length - 1;
-			//
-			while (n >= 0) {
-				if (values[n] >= limits[n]) {
-					// Shift constraint pointer
-					n = n - 1;
-				} else {
-					values[n] = values[n] + 1;
-					if (findLeastSolution(n + 1, constraints, values, limits) != null) {
-						// Found a solution
-						return values;
-					}
+		/**
+		 * Skip over the remainder of the innermost range, returning the number of
+		 * solutions skipped (which includes the current solution). Since no other
+		 * variable depends upon the innermost variable, every value in its range is a
+		 * solution.
+		 *
+		 * @return
+		 */
+		private long skipRange() {
+			if (!primed) {
+				prime();
+			}
+			if (values == null) {
+				return 0;
+			} else if (values.length == 0) {
+				values = null;
+				return 1;
+			}
+			final int last = values.length - 1;
+			long count = size(last, values[last], limits[last]);
+			values[last] = limits[last];
+			values = nextSolution();
+			return count;
+		}
+
+		@Override
+		public Checkpoint checkpoint() {
+			if (!primed) {
+				prime();
+			}
+			int[] vs = values == null ? null : values.clone();
+			return new Checkpoint(vs, lower.clone(), limits.clone(), floor, Checkpoint.fingerprint(constraints));
+		}
+
+		/**
+		 * Split off the lower part of the unexplored search space as a new iterator,
+		 * or return <code>null</code> if there is nothing left to split. This iterator
+		 * then continues with the upper part. Splitting happens at the shallowest
+		 * variable which has at least one unexplored value in its current range, since
+		 * this typically gives the largest subtree.
+		 *
+		 * @return
+		 */
+		private InternalIterator<T> split() {
+			if (!primed && lower[floor] < limits[floor]) {
+				// Split the range of the floor variable without searching
+				return splitAt(floor, (int) (lower[floor] + (((long) limits[floor] - lower[floor] + 1) / 2)));
+			} else if (!primed) {
+				prime();
+			}
+			for (int d = floor; values != null && d < values.length; ++d) {
+				if (values[d] < limits[d]) {
+					// Found unexplored values at this depth
+					long lo = values[d] + 1L;
+					long count = limits[d] - lo + 1;
+					return splitAt(d, (int) (count == 1 ? lo : lo + (count / 2)));
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Split this iterator at a given variable, such that the returned iterator
+		 * takes over the current state upto (but not including) a given midpoint for
+		 * that variable, whilst this iterator is reset to cover the subtree from the
+		 * midpoint onwards.
+		 *
+		 * @param d
+		 * @param mid
+		 * @return
+		 */
+		private InternalIterator<T> splitAt(int d, int mid) {
+			InternalIterator<T> prefix = new InternalIterator<>(projection, nogoods, constraints, dependencies,
+					values, lower, limits, floor);
+			prefix.primed = primed;
+			prefix.conflicts = conflicts;
+			prefix.entered = entered;
+			prefix.epoch = epoch;
+			prefix.solved = solved;
+			values = Arrays.copyOf(values, values.length);
+			lower = Arrays.copyOf(lower, lower.length);
+			limits = Arrays.copyOf(limits, limits.length);
+			conflicts = new BitSet[values.length];
+			entered = Arrays.copyOf(entered, entered.length);
+			modified = new long[values.length];
+			latest = new long[values.length];
+			computed = new long[values.length];
+			prefix.limits[d] = mid - 1;
+			// NOTE: the truncated range must not be recorded as a nogood
+			prefix.entered[d] = 0;
+			prefix.computed[d] = 0;
+			floor = d;
+			lower[d] = mid;
+			primed = false;
+			return prefix;
+		}
+
+		/**
+		 * Split off the upper part of the shallowest unexplored range amongst those
+		 * variables before a given variable, which this iterator then no longer
+		 * covers. This can only be called whilst the search is entering that variable
+		 * (i.e. from a monitor), since only then are the ranges of earlier variables
+		 * known to be current.
+		 *
+		 * @param v
+		 * @return The subtree split off, or <code>null</code> if there is nothing left
+		 *         to split.
+		 */
+		private Coordinator.Task donate(int v) {
+			for (int d = floor; d < v; ++d) {
+				if (values[d] < limits[d]) {
+					long lo = values[d] + 1L;
+					long count = limits[d] - lo + 1;
+					int mid = (int) (count == 1 ? lo : lo + (count / 2));
+					Coordinator.Task task = new Coordinator.Task(d, Arrays.copyOf(values, d), mid, limits[d]);
+					limits[d] = mid - 1;
+					// NOTE: the truncated range must not be recorded as a nogood
+					entered[d] = 0;
+					computed[d] = 0;
+					return task;
 				}
 			}
-			//
 			return null;
 		}
 
+		/**
+		 * Estimate the number of solutions remaining. This assumes the unexplored
+		 * subtrees at each depth look like the subtree currently being explored, which
+		 * is crude but reduces monotonically as the iterator is split.
+		 *
+		 * @return
+		 */
+		private long estimateSize() {
+			if (!primed) {
+				return Math.max(1, (long) limits[floor] - lower[floor] + 1);
+			} else if (values == null) {
+				return 0;
+			}
+			long estimate = 1;
+			for (int d = values.length - 1; d >= floor; --d) {
+				long remaining = (long) limits[d] - values[d];
+				estimate = saturatingAdd(estimate, saturatingMultiply(remaining, estimate));
+			}
+			return estimate;
+		}
+
+		/**
+		 * Count the solutions remaining in this iterator (including the current one),
+		 * without applying the projection. This exhausts the iterator.
+		 *
+		 * @return
+		 */
+		private BigInteger count() {
+			final int last = limits.length - 1;
+			tally = 0;
+			carry = BigInteger.ZERO;
+			if (!primed) {
+				primed = true;
+				long lb = next(floor, lower[floor]);
+				if (lb > limits[floor]) {
+					// empty
+				} else if (floor == last) {
+					tally = size(floor, (int) lb, limits[floor]);
+				} else {
+					enter(floor, (int) lb, limits[floor]);
+					search(floor + 1, false, true);
+				}
+			} else if (values == null) {
+				// exhausted
+			} else if (last < 0) {
+				tally = 1;
+			} else {
+				// Account for the remainder of the innermost range
+				tally = size(last, values[last], limits[last]);
+				search(last, true, true);
+			}
+			values = null;
+			return carry.add(BigInteger.valueOf(tally));
+		}
+
+		private void prime() {
+			primed = true;
+			long lb = next(floor, lower[floor]);
+			if (lb > limits[floor]) {
+				values = null;
+			} else {
+				enter(floor, (int) lb, limits[floor]);
+				if (search(floor + 1, false, false) < 0) {
+					values = null;
+				}
+			}
+		}
+
+		private int[] nextSolution() {
+			return search(values.length, true, false) < 0 ? null : values;
+		}
+
     	/**
     	 * Find the least solution for starting from a given variable, whilst setting
     	 * updating the limits accordingly.
     	 *
     	 * @param v
-    	 * @param c
-    	 * @param constraints
-    	 * @param values
     	 * @return
     	 */
-    	private static int[] findLeastSolution(int v, Constraint[] constraints, int[] values, int[] limits) {
-    		if (v == values.length) {
-    			return values;
-    		} else {
-    			int lb = constraints[v].lowerBound(values);
-    			int ub = constraints[v].upperBound(values);
-    			//
-    			limits[v] = ub;
-    			//
-    			for (int i = lb; i <= ub; ++i) {
-    				values[v] = i;
-    				if (findLeastSolution(v + 1, constraints, values, limits) != null) {
-    					return values;
-    				}
-    			}
-    			//
-    			return null;
-    		}
-    	}
+		private int[] findLeastSolution(int v) {
+			return search(v, false, false) < 0 ? null : values;
+		}
+
+		/**
+		 * The core search engine. This explores the search tree depth first using the
+		 * <code>values</code>, <code>lower</code> and <code>limits</code> arrays as an
+		 * explicit stack, rather than recursing once per variable. Hence, it cannot
+		 * overflow the stack regardless of how many variables are declared. Variables
+		 * below <code>v</code> must already be assigned. If <code>backtrack</code> is
+		 * set then the search first moves on from the current assignment (which is a
+		 * solution), otherwise it starts by entering variable <code>v</code>. The
+		 * search never backtracks below the floor.
+		 * <p>
+		 * When a range is exhausted without any solution being found, the search
+		 * backjumps directly to the deepest variable responsible for the failure
+		 * (rather than simply backtracking to the previous variable). In counting mode,
+		 * the innermost variable is never entered. Instead, the size of its range is
+		 * added directly to the tally (since no other variable can depend upon it).
+		 * </p>
+		 *
+		 * @param v
+		 * @param backtrack
+		 * @param counting
+		 * @return The shallowest variable whose value was changed if a solution was
+		 *         found, otherwise <code>-1</code>.
+		 */
+		private int search(int v, boolean backtrack, boolean counting) {
+			final int n = values.length;
+			final int last = n - 1;
+			int changed = v;
+			int d = v - 1;
+			long successor;
+			if (backtrack) {
+				solved = epoch;
+			}
+			//
+			while (true) {
+				if (backtrack) {
+					// Move on from the current value of variable d
+					if (d < floor) {
+						return -1;
+					} else if (values[d] < limits[d] && (successor = next(d, values[d] + 1L)) <= limits[d]) {
+						changed = Math.min(changed, d);
+						if (d == last) {
+							// No variable depends upon the innermost variable
+							values[d] = (int) successor;
+						} else {
+							assign(d, (int) successor);
+						}
+						v = d + 1;
+						backtrack = false;
+					} else if (solved >= entered[d]) {
+						// Range contained a solution, so backtrack chronologically
+						d = d - 1;
+					} else {
+						if (nogoods != null && d > floor) {
+							nogoods.add(d, frontiers[d], values);
+						}
+						d = backjump(d, dependencies[d]);
+					}
+				} else if (v == n) {
+					if (monitor != null) {
+						monitor.poll(this, v);
+					}
+					solved = epoch;
+					return changed;
+				} else if (nogoods != null && v < last && nogoods.contains(v, frontiers[v], values)) {
+					// Subtree is known to contain no solutions
+					entered[v] = ++epoch;
+					if (conflicts[v] != null) {
+						conflicts[v].clear();
+					}
+					backtrack = true;
+					d = backjump(v, frontiers[v]);
+				} else {
+					// Enter variable v
+					if (monitor != null) {
+						monitor.poll(this, v);
+					}
+					int lb;
+					int ub;
+					int dep = deepest[v];
+					if (computed[v] > (dep < 0 ? 0 : latest[dep])) {
+						// No dependency has changed since bounds were last computed
+						lb = lower[v];
+						ub = limits[v];
+					} else {
+						lb = constraints[v].lowerBound(values);
+						ub = constraints[v].upperBound(values);
+						if (sparse[v] && lb <= ub) {
+							long first = constraints[v].nextValue(values, lb);
+							if (first > ub) {
+								// No value in range is permitted
+								lb = Integer.MAX_VALUE;
+								ub = Integer.MIN_VALUE;
+							} else {
+								lb = (int) first;
+							}
+						}
+						lower[v] = lb;
+						limits[v] = ub;
+						computed[v] = ++clock;
+					}
+					backtrack = true;
+					if (counting && v == last) {
+						// Count innermost range directly
+						if (lb <= ub) {
+							tally(size(v, lb, ub));
+							solved = epoch;
+							d = v - 1;
+						} else {
+							d = backjump(v, dependencies[v]);
+						}
+					} else if (lb <= ub) {
+						enter(v, lb, ub);
+						v = v + 1;
+						backtrack = false;
+					} else {
+						enter(v, lb, ub);
+						d = backjump(v, dependencies[v]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Enter the range for a given variable.
+		 *
+		 * @param v
+		 * @param lb
+		 * @param ub
+		 */
+		private void enter(int v, int lb, int ub) {
+			lower[v] = lb;
+			limits[v] = ub;
+			assign(v, lb);
+			entered[v] = ++epoch;
+			if (conflicts[v] != null) {
+				conflicts[v].clear();
+			}
+		}
+
+		/**
+		 * Assign a given value to a variable, noting the time if this changes its
+		 * value. All earlier variables must have been assigned since any of them last
+		 * changed.
+		 *
+		 * @param v
+		 * @param value
+		 */
+		private void assign(int v, int value) {
+			if (values[v] != value) {
+				values[v] = value;
+				modified[v] = ++clock;
+			}
+			latest[v] = v == 0 ? modified[v] : Math.max(latest[v - 1], modified[v]);
+		}
+
+		/**
+		 * Determine the variable to jump back to after a given variable has failed (i.e.
+		 * its range was exhausted without finding a solution). This is the deepest
+		 * variable upon which either its range depends, or which was responsible for
+		 * the failure of a later variable. No other variable can affect the outcome,
+		 * hence any in between are skipped. The variables responsible are recorded as
+		 * conflicts of the target, since they may equally explain its failure.
+		 *
+		 * @param f
+		 * @param deps The variables which explain the failure of <code>f</code> itself.
+		 * @return
+		 */
+		private int backjump(int f, BitSet deps) {
+			BitSet conflict = conflicts[f];
+			int t = deps.previousSetBit(f - 1);
+			if (conflict != null) {
+				t = Math.max(t, conflict.previousSetBit(f - 1));
+			}
+			if (t >= floor) {
+				BitSet target = conflicts[t];
+				if (target == null) {
+					target = new BitSet();
+					conflicts[t] = target;
+				}
+				target.or(deps);
+				if (conflict != null) {
+					target.or(conflict);
+				}
+				target.clear(t, values.length);
+			}
+			return t;
+		}
+
+		/**
+		 * Determine the least value permitted for a given variable which is no less
+		 * than a given value.
+		 *
+		 * @param v
+		 * @param value
+		 * @return The least permitted value, or <code>Long.MAX_VALUE</code> if there
+		 *         is none.
+		 */
+		private long next(int v, long value) {
+			if (!sparse[v]) {
+				return value;
+			} else if (value > Integer.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			}
+			return constraints[v].nextValue(values, (int) value);
+		}
+
+		/**
+		 * Determine the number of values permitted for a given variable between a
+		 * given lower and upper bound (inclusive).
+		 *
+		 * @param v
+		 * @param lb
+		 * @param ub
+		 * @return
+		 */
+		private long size(int v, int lb, int ub) {
+			if (!sparse[v]) {
+				return (long) ub - lb + 1;
+			}
+			long count = 0;
+			for (long i = next(v, lb); i <= ub; i = next(v, i + 1)) {
+				count = count + 1;
+			}
+			return count;
+		}
+
+		private void tally(long size) {
+			if (tally > Long.MAX_VALUE - size) {
+				carry = carry.add(BigInteger.valueOf(tally));
+				tally = 0;
+			}
+			tally = tally + size;
+		}
+
+		/**
+		 * Determine the variables upon which the constraint for each variable depends.
+		 *
+		 * @param constraints
+		 * @return
+		 */
+		private static BitSet[] dependencies(Constraint[] constraints) {
+			BitSet[] deps = new BitSet[constraints.length];
+			for (int i = 0; i != constraints.length; ++i) {
+				deps[i] = new BitSet();
+				constraints[i].dependencies(i, deps[i]);
+				deps[i].clear(i, constraints.length);
+			}
+			return deps;
+		}
+
+		/**
+		 * Determine the earlier variables upon which the subtree rooted at each
+		 * variable depends, given the dependencies of each variable.
+		 *
+		 * @param dependencies
+		 * @return
+		 */
+		private static int[] deepest(BitSet[] dependencies) {
+			int[] deepest = new int[dependencies.length];
+			for (int v = 0; v != dependencies.length; ++v) {
+				deepest[v] = dependencies[v].previousSetBit(v - 1);
+			}
+			return deepest;
+		}
+
+		private static BitSet[] frontiers(BitSet[] dependencies) {
+			final int n = dependencies.length;
+			BitSet[] frontiers = new BitSet[n];
+			BitSet deps = new BitSet();
+			for (int d = n - 1; d >= 0; --d) {
+				deps.or(dependencies[d]);
+				deps.clear(d, n);
+				frontiers[d] = (BitSet) deps.clone();
+			}
+			return frontiers;
+		}
+
+		private static long saturatingAdd(long x, long y) {
+			long r = x + y;
+			return r < 0 ? Long.MAX_VALUE : r;
+		}
+
+		private static long saturatingMultiply(long x, long y) {
+			if (x != 0 && y > Long.MAX_VALUE / x) {
+				return Long.MAX_VALUE;
+			}
+			return x * y;
+		}
     }
 }
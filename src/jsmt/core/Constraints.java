@@ -1,5 +1,11 @@
 package jsmt.core;
 
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
 public class Constraints {
 	/**
 	 * A constant representing the value <code>1</code>. This is normally used to
@@ -91,6 +97,164 @@ public class Constraints {
 		return new StaticRange(lb,ub);
 	}
 
+	/**
+	 * Create a constraint representing a value which differs from a given
+	 * variable. This leaves a hole in the range, which the search skips over.
+	 *
+	 * @param variable
+	 * @return
+	 */
+	public static Constraint notEqual(Variable variable) {
+		return new Disequality(variable);
+	}
+
+	/**
+	 * Create a constraint representing a value which is a multiple of a given
+	 * (positive) factor. Only multiples are visited by the search, rather than
+	 * every value in the range.
+	 *
+	 * @param factor
+	 * @return
+	 */
+	public static Constraint multipleOf(int factor) {
+		if (factor < 1) {
+			throw new IllegalArgumentException("invalid factor " + factor);
+		}
+		return new Multiple(factor);
+	}
+
+	/**
+	 * Create a constraint representing a value drawn from a given set of values.
+	 * Only values in the set are visited by the search, hence a sparse set costs
+	 * time proportional to its size rather than its span.
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static Constraint oneOf(int... values) {
+		return new Membership(values);
+	}
+
+	/**
+	 * Create a constraint representing a value which solves the polynomial
+	 * equation <code>lhs == rhs</code>. The unknown is the latest variable
+	 * mentioned in the equation, which must be the variable being declared (see
+	 * <code>Constraint.Set.nextVariable()</code>). Once the earlier variables are
+	 * assigned, the equation is solved directly: linear equations by division,
+	 * quadratic equations via their discriminant and those of higher degree by
+	 * trying the divisors of their lowest coefficient. Hence, only solutions are
+	 * visited by the search, rather than every value being filtered.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @throws ArithmeticException if evaluating the equation overflows.
+	 * @return
+	 */
+	public static Constraint solve(Variable lhs, Variable rhs) {
+		return new Solve(lhs, rhs);
+	}
+
+	/**
+	 * Create a forward constraint requiring one linear polynomial to be less than
+	 * another. Unlike ordinary constraints, this may refer to any variables
+	 * regardless of when they are declared.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator lessThan(Variable lhs, Variable rhs) {
+		return new Linear(lhs, rhs, -1, Linear.AT_MOST);
+	}
+
+	/**
+	 * Create a forward constraint requiring one linear polynomial to be less than
+	 * or equal to another.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator lessOrEqual(Variable lhs, Variable rhs) {
+		return new Linear(lhs, rhs, 0, Linear.AT_MOST);
+	}
+
+	/**
+	 * Create a forward constraint requiring two linear polynomials to be equal.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator equal(Variable lhs, Variable rhs) {
+		return new Linear(lhs, rhs, 0, Linear.EXACTLY);
+	}
+
+	/**
+	 * Create a forward constraint requiring a linear polynomial to be at most a
+	 * given constant, such as <code>x+y+z <= 100</code>.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator lessOrEqual(Variable lhs, int rhs) {
+		return new Linear(lhs, null, rhs, Linear.AT_MOST);
+	}
+
+	/**
+	 * Create a forward constraint requiring a linear polynomial to be at least a
+	 * given constant.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator greaterOrEqual(Variable lhs, int rhs) {
+		return new Linear(lhs, null, rhs, Linear.AT_LEAST);
+	}
+
+	/**
+	 * Create a forward constraint requiring a linear polynomial to equal a given
+	 * constant, such as <code>x+y+z == 100</code>.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	public static Propagator equal(Variable lhs, int rhs) {
+		return new Linear(lhs, null, rhs, Linear.EXACTLY);
+	}
+
+	/**
+	 * Create a forward constraint requiring the given variables to take pairwise
+	 * distinct values. Values taken by variables already assigned are skipped by
+	 * the search, whilst a prefix is abandoned as soon as the remaining variables
+	 * cannot be given distinct values (e.g. three variables with domains in
+	 * <code>0..1</code>).
+	 *
+	 * @param variables
+	 * @return
+	 */
+	public static Propagator allDifferent(Variable... variables) {
+		return new AllDifferent(variables);
+	}
+
+	/**
+	 * Create a forward constraint requiring the given variables to match one of a
+	 * given set of tuples, where the value of <code>scope[i]</code> is the
+	 * <code>i</code>th element of a tuple. The tuples are indexed such that, once
+	 * the earlier variables of the scope are assigned, the values permitted for the
+	 * next are found by binary search rather than by scanning the tuples.
+	 *
+	 * @param scope
+	 * @param tuples
+	 * @return
+	 */
+	public static Propagator table(Variable[] scope, int[][] tuples) {
+		return new Table(scope, tuples);
+	}
+
 	/**
 	 * Provides a reasonably straightforward implementation for combining
 	 * constraints such that they all must hold..
@@ -124,6 +288,50 @@ public class Constraints {
 			}
 			return m;
 		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			return Constraint.nextValue(clauses, values, value);
+		}
+
+		@Override
+		boolean isSparse() {
+			for (int i = 0; i != clauses.length; ++i) {
+				if (clauses[i].isSparse()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			for (int i = 0; i != clauses.length; ++i) {
+				clauses[i].dependencies(variable, deps);
+			}
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			Constraint[] cs = new Constraint[clauses.length];
+			for (int i = 0; i != clauses.length; ++i) {
+				cs[i] = clauses[i].remap(mapping);
+				if (cs[i] == null) {
+					return null;
+				}
+			}
+			return new Conjunction(cs);
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			for (int i = 0; i != clauses.length; ++i) {
+				if (!clauses[i].compile(builder)) {
+					builder.residual(clauses[i]);
+				}
+			}
+			return true;
+		}
 	}
 
 	/**
@@ -152,6 +360,23 @@ public class Constraints {
 		public int upperBound(int[] vars) {
 			return upperBound;
 		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			// Reads no variables
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return this;
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(lowerBound);
+			builder.upperBound(upperBound);
+			return true;
+		}
 	}
 
 	private static class Congruence extends Constraint {
@@ -163,12 +388,29 @@ public class Constraints {
 
 	    @Override
 		public int lowerBound(int[] values) {
-			return variable.evaluate(values);
+			return variable.evaluateCached(values);
 		}
 
 		@Override
 		public int upperBound(int[] values) {
-			return variable.evaluate(values);
+			return variable.evaluateCached(values);
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new Congruence(variable.remap(mapping));
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(variable, 0);
+			builder.upperBound(variable, 0);
+			return true;
 		}
 	}
 
@@ -181,13 +423,29 @@ public class Constraints {
 
 	    @Override
 		public int lowerBound(int[] values) {
-			return variable.evaluate(values);
+			return variable.evaluateCached(values);
 		}
 
 		@Override
 		public int upperBound(int[] values) {
 			return Integer.MAX_VALUE;
 		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new RelaxedLowerBound(variable.remap(mapping));
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(variable, 0);
+			return true;
+		}
 	}
 
 	private static class StrictLowerBound extends Constraint {
@@ -199,13 +457,29 @@ public class Constraints {
 
 	    @Override
 		public int lowerBound(int[] values) {
-			return variable.evaluate(values) + 1;
+			return variable.evaluateCached(values) + 1;
 		}
 
 		@Override
 		public int upperBound(int[] values) {
 			return Integer.MAX_VALUE;
 		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new StrictLowerBound(variable.remap(mapping));
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(variable, 1);
+			return true;
+		}
 	}
 
 	private static class RelaxedUpperBound extends Constraint {
@@ -222,7 +496,24 @@ public class Constraints {
 
 		@Override
 		public int upperBound(int[] values) {
-			return variable.evaluate(values);
+			return variable.evaluateCached(values);
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new RelaxedUpperBound(variable.remap(mapping));
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(Integer.MIN_VALUE + 1);
+			builder.upperBound(variable, 0);
+			return true;
 		}
 	}
 
@@ -240,7 +531,1009 @@ public class Constraints {
 
 		@Override
 		public int upperBound(int[] values) {
-			return variable.evaluate(values) + 1;
+			return variable.evaluateCached(values) + 1;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new StrictUpperBound(variable.remap(mapping));
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			builder.lowerBound(Integer.MIN_VALUE + 1);
+			builder.upperBound(variable, 1);
+			return true;
+		}
+	}
+
+	private static class Disequality extends Constraint {
+		private final Variable variable;
+
+		public Disequality(Variable variable) {
+			this.variable = variable;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			if (value != variable.evaluateCached(values)) {
+				return value;
+			} else if (value == Integer.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			} else {
+				return value + 1;
+			}
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			this.variable.dependencies(deps);
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new Disequality(variable.remap(mapping));
+		}
+
+		@Override
+		public long fingerprint() {
+			return CompiledConstraint.mix(6, Arrays.hashCode(variable.flatten()));
+		}
+	}
+
+	private static class Multiple extends Constraint {
+		private final int factor;
+
+		public Multiple(int factor) {
+			this.factor = factor;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			int remainder = Math.floorMod(value, factor);
+			long r = remainder == 0 ? value : (long) value + (factor - remainder);
+			return r > Integer.MAX_VALUE ? Long.MAX_VALUE : r;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			// Reads no variables
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return this;
+		}
+
+		@Override
+		public long fingerprint() {
+			return CompiledConstraint.mix(7, factor);
+		}
+	}
+
+	/**
+	 * Represents a value drawn from a fixed set, which is held as a bitset offset
+	 * from the least value in the set. When the values are spread too thinly for
+	 * this to be compact, they are instead held in a sorted array.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Membership extends Constraint {
+		/**
+		 * Maximum span of values (relative to their number) for which a bitset is
+		 * used.
+		 */
+		private static final int DENSITY = 64;
+		private final BitSet members;
+		private final int[] sorted;
+		private final int min;
+		private final int max;
+
+		public Membership(int... values) {
+			int[] sorted = values.clone();
+			Arrays.sort(sorted);
+			this.min = sorted.length == 0 ? Integer.MAX_VALUE : sorted[0];
+			this.max = sorted.length == 0 ? Integer.MIN_VALUE : sorted[sorted.length - 1];
+			if (sorted.length != 0 && (long) max - min < (long) DENSITY * sorted.length) {
+				this.members = new BitSet();
+				this.sorted = null;
+				for (int v : sorted) {
+					members.set(v - min);
+				}
+			} else {
+				this.members = null;
+				this.sorted = sorted;
+			}
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			return min;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return max;
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			if (value > max) {
+				return Long.MAX_VALUE;
+			} else if (value <= min) {
+				return min;
+			} else if (members != null) {
+				return (long) min + members.nextSetBit(value - min);
+			}
+			int i = Arrays.binarySearch(sorted, value);
+			return i >= 0 ? value : sorted[-(i + 1)];
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			// Reads no variables
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return this;
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			// Static bounds are exposed, whilst holes are left to the residual
+			builder.lowerBound(min);
+			builder.upperBound(max);
+			builder.residual(this);
+			return true;
+		}
+
+		@Override
+		public long fingerprint() {
+			long h = CompiledConstraint.mix(CompiledConstraint.mix(8, min), max);
+			return CompiledConstraint.mix(h, members != null ? members.hashCode() : Arrays.hashCode(sorted));
+		}
+	}
+
+	/**
+	 * Represents a value which solves a polynomial equation in an unknown, whose
+	 * coefficients are themselves polynomials over earlier variables. The equation
+	 * is held as <code>lhs - rhs == 0</code>, where each term records its
+	 * coefficient, the power of the unknown and the other variables it multiplies.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Solve extends Constraint {
+		private static final long[] NONE = new long[0];
+		private final Variable lhs;
+		private final Variable rhs;
+		private final int unknown;
+		private final int degree;
+		private final long[] coefficients;
+		private final int[] powers;
+		private final int[][] others;
+		/**
+		 * The earlier variables read by the equation, in order of declaration.
+		 */
+		private final int[] reads;
+		/**
+		 * The most recently computed roots for each thread.
+		 */
+		private final ThreadLocal<Roots> last;
+
+		public Solve(Variable lhs, Variable rhs) {
+			int[][] codes = { lhs.flatten(), rhs.flatten() };
+			int unknown = -1;
+			int count = 0;
+			for (int[] code : codes) {
+				count += code[0];
+				int k = 1;
+				for (int i = code[0]; i > 0; --i) {
+					int n = code[k + 1];
+					k += 2;
+					for (int j = 0; j != n; ++j) {
+						unknown = Math.max(unknown, code[k++]);
+					}
+				}
+			}
+			if (unknown < 0) {
+				throw new IllegalArgumentException("no unknown in " + lhs + " == " + rhs);
+			}
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.unknown = unknown;
+			this.coefficients = new long[count];
+			this.powers = new int[count];
+			this.others = new int[count][];
+			int degree = 0;
+			int t = 0;
+			for (int c = 0; c != codes.length; ++c) {
+				int[] code = codes[c];
+				int k = 1;
+				for (int i = code[0]; i > 0; --i, ++t) {
+					coefficients[t] = c == 0 ? code[k] : -(long) code[k];
+					int n = code[k + 1];
+					k += 2;
+					// NOTE: variables are sorted, hence the unknown comes last
+					int m = n;
+					while (m > 0 && code[k + m - 1] == unknown) {
+						m = m - 1;
+					}
+					powers[t] = n - m;
+					others[t] = Arrays.copyOfRange(code, k, k + m);
+					degree = Math.max(degree, n - m);
+					k += n;
+				}
+			}
+			this.degree = degree;
+			BitSet deps = new BitSet();
+			for (int[] vs : others) {
+				for (int v : vs) {
+					deps.set(v);
+				}
+			}
+			this.reads = deps.stream().toArray();
+			this.last = ThreadLocal.withInitial(() -> new Roots(reads.length));
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			long[] roots = cachedRoots(values);
+			if (roots == null) {
+				return Integer.MIN_VALUE;
+			}
+			return roots.length == 0 ? Integer.MAX_VALUE : (int) roots[0];
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			long[] roots = cachedRoots(values);
+			if (roots == null) {
+				return Integer.MAX_VALUE;
+			}
+			return roots.length == 0 ? Integer.MIN_VALUE : (int) roots[roots.length - 1];
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			long[] roots = cachedRoots(values);
+			if (roots == null) {
+				return value;
+			}
+			for (int i = 0; i != roots.length; ++i) {
+				if (roots[i] >= value) {
+					return roots[i];
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			if (variable != unknown) {
+				throw new IllegalArgumentException("equation does not solve for variable " + variable);
+			}
+			for (int v : reads) {
+				deps.set(v);
+			}
+		}
+
+		@Override
+		Constraint remap(int[] mapping) {
+			return new Solve(lhs.remap(mapping), rhs.remap(mapping));
+		}
+
+		@Override
+		public long fingerprint() {
+			long h = CompiledConstraint.mix(9, Arrays.hashCode(lhs.flatten()));
+			return CompiledConstraint.mix(h, Arrays.hashCode(rhs.flatten()));
+		}
+
+		/**
+		 * Determine the roots of the equation for the given values of earlier
+		 * variables. Since both bounds and then the next value are requested in turn
+		 * for the same prefix, the most recent roots are remembered (for each thread)
+		 * and reused if the values read match.
+		 *
+		 * @param values
+		 * @return
+		 */
+		private long[] cachedRoots(int[] values) {
+			Roots r = last.get();
+			if (!r.matches(reads, values)) {
+				r.valid = false;
+				r.roots = roots(values);
+				for (int i = 0; i != reads.length; ++i) {
+					r.key[i] = values[reads[i]];
+				}
+				r.valid = true;
+			}
+			return r.roots;
+		}
+
+		/**
+		 * Determine the integer solutions (in sorted order) of the equation for the
+		 * unknown, given the values of earlier variables. Returns <code>null</code>
+		 * if every value is a solution.
+		 *
+		 * @param values
+		 * @return
+		 */
+		private long[] roots(int[] values) {
+			long[] c = new long[degree + 1];
+			for (int i = 0; i != coefficients.length; ++i) {
+				long t = coefficients[i];
+				for (int v : others[i]) {
+					t = Math.multiplyExact(t, values[v]);
+				}
+				c[powers[i]] = Math.addExact(c[powers[i]], t);
+			}
+			int d = degree;
+			while (d >= 0 && c[d] == 0) {
+				d = d - 1;
+			}
+			if (d < 0) {
+				return null;
+			} else if (d == 0) {
+				return NONE;
+			}
+			// Factor out the largest power of the unknown, leaving zero as a root
+			int m = 0;
+			while (c[m] == 0) {
+				m = m + 1;
+			}
+			long[] roots = new long[d - m + 1];
+			int n = 0;
+			if (m > 0) {
+				roots[n++] = 0;
+			}
+			switch (d - m) {
+			case 0:
+				break;
+			case 1:
+				// c[m+1] * z + c[m] == 0
+				if (c[m] % c[m + 1] == 0) {
+					roots[n++] = Math.negateExact(c[m] / c[m + 1]);
+				}
+				break;
+			case 2:
+				n = quadratic(c[m + 2], c[m + 1], c[m], roots, n);
+				break;
+			default:
+				n = divisors(Arrays.copyOfRange(c, m, d + 1), roots, n);
+			}
+			// Discard roots which are not valid values
+			int k = 0;
+			for (int i = 0; i != n; ++i) {
+				if (roots[i] >= Integer.MIN_VALUE && roots[i] <= Integer.MAX_VALUE) {
+					roots[k++] = roots[i];
+				}
+			}
+			roots = Arrays.copyOf(roots, k);
+			Arrays.sort(roots);
+			return roots;
+		}
+
+		/**
+		 * Find the integer roots of <code>a*z^2 + b*z + c</code>, where
+		 * <code>a</code> and <code>c</code> are non-zero.
+		 *
+		 * @param a
+		 * @param b
+		 * @param c
+		 * @param roots Array into which roots are written.
+		 * @param n     Number of roots already written.
+		 * @return Number of roots written afterwards.
+		 */
+		private static int quadratic(long a, long b, long c, long[] roots, int n) {
+			long discriminant = Math.subtractExact(Math.multiplyExact(b, b),
+					Math.multiplyExact(4, Math.multiplyExact(a, c)));
+			if (discriminant < 0) {
+				return n;
+			}
+			long s = (long) Math.sqrt((double) discriminant);
+			while (s * s > discriminant) {
+				s = s - 1;
+			}
+			while ((s + 1) * (s + 1) <= discriminant) {
+				s = s + 1;
+			}
+			if (s * s != discriminant) {
+				return n;
+			}
+			long denominator = Math.multiplyExact(2, a);
+			long[] numerators = { Math.subtractExact(-b, s), Math.addExact(-b, s) };
+			for (int i = 0; i < (s == 0 ? 1 : 2); ++i) {
+				if (numerators[i] % denominator == 0) {
+					roots[n++] = numerators[i] / denominator;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Find the integer roots of a polynomial whose constant coefficient is
+		 * non-zero. Every such root divides the constant coefficient and, by Cauchy's
+		 * bound, has magnitude no larger than one more than the largest coefficient
+		 * relative to the leading coefficient. Hence, divisors are tried in pairs up
+		 * to whichever of this bound and the square root of the constant is smaller.
+		 *
+		 * @param c     Coefficients ordered by increasing power.
+		 * @param roots Array into which roots are written.
+		 * @param n     Number of roots already written.
+		 * @return Number of roots written afterwards.
+		 */
+		private static int divisors(long[] c, long[] roots, int n) {
+			final int d = c.length - 1;
+			long bound = 0;
+			for (int i = 0; i != d; ++i) {
+				bound = Math.max(bound, Math.abs(c[i] / c[d]));
+			}
+			// No root outside the range of an int is needed anyway
+			bound = Math.min(bound + 1, 1L << 31);
+			// NOTE: constant held as non-positive to avoid overflow
+			final long k = c[0] < 0 ? c[0] : -c[0];
+			for (long f = 1; f <= bound && -(f * f) >= k; ++f) {
+				if (k % f == 0) {
+					long g = -(k / f);
+					n = test(c, f, roots, n);
+					n = test(c, -f, roots, n);
+					if (g != f && g <= bound) {
+						n = test(c, g, roots, n);
+						n = test(c, -g, roots, n);
+					}
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Record a candidate if it is a root of the given polynomial. This is
+		 * evaluated with <code>long</code> arithmetic, falling back to
+		 * <code>BigInteger</code> only if that overflows.
+		 *
+		 * @param c
+		 * @param z
+		 * @param roots
+		 * @param n
+		 * @return
+		 */
+		private static int test(long[] c, long z, long[] roots, int n) {
+			boolean root;
+			try {
+				long r = 0;
+				for (int i = c.length - 1; i >= 0; --i) {
+					r = Math.addExact(Math.multiplyExact(r, z), c[i]);
+				}
+				root = r == 0;
+			} catch (ArithmeticException e) {
+				BigInteger x = BigInteger.valueOf(z);
+				BigInteger r = BigInteger.ZERO;
+				for (int i = c.length - 1; i >= 0; --i) {
+					r = r.multiply(x).add(BigInteger.valueOf(c[i]));
+				}
+				root = r.signum() == 0;
+			}
+			if (root) {
+				roots[n++] = z;
+			}
+			return n;
+		}
+
+		/**
+		 * The roots computed for a given assignment of the variables read.
+		 *
+		 * @author David J. Pearce
+		 *
+		 */
+		private static final class Roots {
+			private final int[] key;
+			private long[] roots;
+			/**
+			 * Whether the key and roots hold a completed computation, which is not the
+			 * case initially or if solving the equation failed.
+			 */
+			private boolean valid;
+
+			public Roots(int n) {
+				this.key = new int[n];
+			}
+
+			public boolean matches(int[] reads, int[] values) {
+				if (!valid) {
+					return false;
+				}
+				for (int i = 0; i != reads.length; ++i) {
+					if (key[i] != values[reads[i]]) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A forward constraint requiring a number of variables to be pairwise
+	 * distinct. This is enforced by bounds consistency: whenever the domains of
+	 * some <code>k</code> variables lie within an interval of exactly
+	 * <code>k</code> values (a <em>Hall interval</em>), those values are taken and
+	 * no other variable's domain may start or end within it. If more than
+	 * <code>k</code> variables lie within such an interval then no matching of
+	 * variables to values exists, and the constraint fails. Values of variables
+	 * with singleton domains are additionally skipped by <code>nextValue()</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class AllDifferent extends Propagator {
+		private final int[] variables;
+
+		public AllDifferent(Variable... variables) {
+			this.variables = new int[variables.length];
+			BitSet seen = new BitSet();
+			for (int i = 0; i != variables.length; ++i) {
+				int v = variables[i].variable();
+				if (v < 0) {
+					throw new IllegalArgumentException("invalid variable " + variables[i]);
+				} else if (seen.get(v)) {
+					throw new IllegalArgumentException("duplicate variable " + variables[i]);
+				}
+				seen.set(v);
+				this.variables[i] = v;
+			}
+		}
+
+		@Override
+		public int[] variables() {
+			return variables;
+		}
+
+		@Override
+		public boolean propagate(int[] lo, int[] hi) {
+			final int n = variables.length;
+			// Separate the values of fixed variables from the remaining open variables
+			int[] fixed = new int[n];
+			int[] open = new int[n];
+			int f = 0;
+			int m = 0;
+			for (int v : variables) {
+				if (lo[v] > hi[v]) {
+					return false;
+				} else if (lo[v] == hi[v]) {
+					fixed[f++] = lo[v];
+				} else {
+					open[m++] = v;
+				}
+			}
+			Arrays.sort(fixed, 0, f);
+			for (int i = 1; i < f; ++i) {
+				if (fixed[i - 1] == fixed[i]) {
+					return false;
+				}
+			}
+			// Remove fixed values from the bounds of open variables
+			for (int i = 0; i != m; ++i) {
+				int v = open[i];
+				while (lo[v] < hi[v] && Arrays.binarySearch(fixed, 0, f, lo[v]) >= 0) {
+					lo[v] = lo[v] + 1;
+				}
+				while (lo[v] < hi[v] && Arrays.binarySearch(fixed, 0, f, hi[v]) >= 0) {
+					hi[v] = hi[v] - 1;
+				}
+				if (Arrays.binarySearch(fixed, 0, f, lo[v]) >= 0) {
+					return false;
+				}
+			}
+			if (m < 2) {
+				return true;
+			}
+			// Order open variables by upper bound (insertion sort, since few remain)
+			for (int i = 1; i < m; ++i) {
+				int v = open[i];
+				int j = i;
+				while (j > 0 && hi[open[j - 1]] > hi[v]) {
+					open[j] = open[j - 1];
+					j = j - 1;
+				}
+				open[j] = v;
+			}
+			// Find Hall intervals, starting from the lower bound of each open variable
+			long[] halls = new long[2 * m];
+			int count = 0;
+			for (int i = 0; i != m; ++i) {
+				int a = lo[open[i]];
+				int contained = 0;
+				for (int j = 0; j != m; ++j) {
+					int u = open[j];
+					if (lo[u] >= a) {
+						contained = contained + 1;
+						// Values in the interval which are not already taken
+						long available = (long) hi[u] - a + 1 - taken(fixed, f, a, hi[u]);
+						if (contained > available) {
+							return false;
+						} else if (contained == available) {
+							if (count == halls.length) {
+								halls = Arrays.copyOf(halls, count * 2);
+							}
+							halls[count++] = a;
+							halls[count++] = hi[u];
+						}
+					}
+				}
+			}
+			// Remove each Hall interval from the bounds of open variables outside it
+			for (int i = 0; i < count; i += 2) {
+				long a = halls[i];
+				long b = halls[i + 1];
+				for (int j = 0; j != m; ++j) {
+					int v = open[j];
+					if (lo[v] >= a && hi[v] <= b) {
+						continue;
+					}
+					if (lo[v] >= a && lo[v] <= b) {
+						lo[v] = (int) (b + 1);
+					}
+					if (hi[v] >= a && hi[v] <= b) {
+						hi[v] = (int) (a - 1);
+					}
+					if (lo[v] > hi[v]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Determine how many of the given (sorted) fixed values lie within a given
+		 * interval.
+		 *
+		 * @param fixed
+		 * @param f
+		 * @param a
+		 * @param b
+		 * @return
+		 */
+		private static int taken(int[] fixed, int f, int a, int b) {
+			if (f == 0) {
+				return 0;
+			}
+			int i = Arrays.binarySearch(fixed, 0, f, a);
+			int j = Arrays.binarySearch(fixed, 0, f, b);
+			i = i >= 0 ? i : -(i + 1);
+			j = j >= 0 ? j + 1 : -(j + 1);
+			return j - i;
+		}
+
+		@Override
+		public long nextValue(int variable, int[] lo, int[] hi, int value) {
+			long r = value;
+			boolean moved = true;
+			while (moved) {
+				moved = false;
+				for (int v : variables) {
+					if (v != variable && lo[v] == hi[v] && lo[v] == r) {
+						if (r == Integer.MAX_VALUE) {
+							return Long.MAX_VALUE;
+						}
+						r = r + 1;
+						moved = true;
+					}
+				}
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * A forward constraint requiring a number of variables to match one of a set
+	 * of tuples. The tuples are held in columns, with the variables (and hence the
+	 * columns) ordered by declaration and the rows sorted lexicographically. Thus,
+	 * the rows matching the values of the first few variables form a contiguous
+	 * block, within which the next column is itself sorted. This acts as a trie
+	 * where each node is a block of rows, and its children are found by binary
+	 * search.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Table extends Propagator {
+		private final int[] variables;
+		private final int[][] columns;
+		private final int rows;
+
+		public Table(Variable[] scope, int[][] tuples) {
+			final int k = scope.length;
+			if (k == 0) {
+				throw new IllegalArgumentException("empty scope");
+			}
+			// Order scope by declaration
+			Integer[] order = new Integer[k];
+			int[] vars = new int[k];
+			for (int i = 0; i != k; ++i) {
+				vars[i] = scope[i].variable();
+				if (vars[i] < 0) {
+					throw new IllegalArgumentException("invalid variable " + scope[i]);
+				}
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Integer.compare(vars[a], vars[b]));
+			this.variables = new int[k];
+			for (int i = 0; i != k; ++i) {
+				variables[i] = vars[order[i]];
+				if (i > 0 && variables[i] == variables[i - 1]) {
+					throw new IllegalArgumentException("duplicate variable " + scope[order[i]]);
+				}
+			}
+			// Permute and sort the rows
+			int[][] sorted = new int[tuples.length][];
+			for (int r = 0; r != tuples.length; ++r) {
+				if (tuples[r].length != k) {
+					throw new IllegalArgumentException("invalid tuple length");
+				}
+				sorted[r] = new int[k];
+				for (int i = 0; i != k; ++i) {
+					sorted[r][i] = tuples[r][order[i]];
+				}
+			}
+			Arrays.sort(sorted, (a, b) -> {
+				for (int i = 0; i != a.length; ++i) {
+					int c = Integer.compare(a[i], b[i]);
+					if (c != 0) {
+						return c;
+					}
+				}
+				return 0;
+			});
+			this.rows = sorted.length;
+			this.columns = new int[k][rows];
+			for (int r = 0; r != rows; ++r) {
+				for (int i = 0; i != k; ++i) {
+					columns[i][r] = sorted[r][i];
+				}
+			}
+		}
+
+		@Override
+		public int[] variables() {
+			return variables;
+		}
+
+		@Override
+		public long fingerprint() {
+			long h = super.fingerprint();
+			for (int[] column : columns) {
+				h = CompiledConstraint.mix(h, Arrays.hashCode(column));
+			}
+			return h;
+		}
+
+		@Override
+		public boolean propagate(int[] lo, int[] hi) {
+			int start = 0;
+			int end = rows;
+			for (int i = 0; i != variables.length; ++i) {
+				int v = variables[i];
+				// Find rows in the current block whose value lies within the domain
+				int first = search(columns[i], start, end, lo[v]);
+				int last = hi[v] == Integer.MAX_VALUE ? end : search(columns[i], first, end, hi[v] + 1);
+				if (first >= last) {
+					return false;
+				}
+				lo[v] = columns[i][first];
+				hi[v] = columns[i][last - 1];
+				if (lo[v] != hi[v]) {
+					// Can only descend through variables with singleton domains
+					break;
+				}
+				start = first;
+				end = last;
+			}
+			return true;
+		}
+
+		@Override
+		public long nextValue(int variable, int[] lo, int[] hi, int value) {
+			int start = 0;
+			int end = rows;
+			for (int i = 0; i != variables.length; ++i) {
+				int v = variables[i];
+				if (v == variable) {
+					int r = search(columns[i], start, end, value);
+					return r == end ? Long.MAX_VALUE : columns[i][r];
+				} else if (lo[v] != hi[v]) {
+					// Block is unknown, hence every value is permitted
+					return value;
+				}
+				start = search(columns[i], start, end, lo[v]);
+				end = lo[v] == Integer.MAX_VALUE ? end : search(columns[i], start, end, lo[v] + 1);
+			}
+			return value;
+		}
+
+		/**
+		 * Find the first row in a given block of a column whose value is no less than
+		 * a given value, or the end of the block if there is none.
+		 *
+		 * @param column
+		 * @param start
+		 * @param end
+		 * @param value
+		 * @return
+		 */
+		private static int search(int[] column, int start, int end, int value) {
+			while (start < end) {
+				int mid = (start + end) >>> 1;
+				if (column[mid] < value) {
+					start = mid + 1;
+				} else {
+					end = mid;
+				}
+			}
+			return start;
+		}
+	}
+
+	/**
+	 * A forward constraint relating a linear combination of variables to a
+	 * constant. This is enforced using bounds propagation: the least value each
+	 * other term could take determines how large any one term can be.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Linear extends Propagator {
+		private static final int AT_MOST = 1;
+		private static final int AT_LEAST = 2;
+		private static final int EXACTLY = 3;
+
+		private final int[] variables;
+		private final long[] coefficients;
+		private final long constant;
+		private final int kind;
+
+		/**
+		 * Construct a constraint <code>lhs - rhs (kind) constant</code>.
+		 *
+		 * @param lhs
+		 * @param rhs      (may be <code>null</code>)
+		 * @param constant
+		 * @param kind
+		 */
+		public Linear(Variable lhs, Variable rhs, int constant, int kind) {
+			TreeMap<Integer, Long> terms = new TreeMap<>();
+			long k = constant;
+			k = k - collect(lhs, 1, terms);
+			if (rhs != null) {
+				k = k - collect(rhs, -1, terms);
+			}
+			this.variables = new int[terms.size()];
+			this.coefficients = new long[terms.size()];
+			int i = 0;
+			for (Map.Entry<Integer, Long> e : terms.entrySet()) {
+				variables[i] = e.getKey();
+				coefficients[i++] = e.getValue();
+			}
+			this.constant = k;
+			this.kind = kind;
+		}
+
+		@Override
+		public int[] variables() {
+			return variables;
+		}
+
+		@Override
+		public long fingerprint() {
+			long h = CompiledConstraint.mix(super.fingerprint(), Arrays.hashCode(coefficients));
+			return CompiledConstraint.mix(CompiledConstraint.mix(h, constant), kind);
+		}
+
+		@Override
+		public boolean propagate(int[] lo, int[] hi) {
+			if (kind != AT_LEAST && !propagate(1, constant, lo, hi)) {
+				return false;
+			}
+			return kind == AT_MOST || propagate(-1, -constant, lo, hi);
+		}
+
+		/**
+		 * Propagate the constraint <code>sum(sign * a_i * x_i) <= bound</code>. If
+		 * the arithmetic overflows then propagation simply stops, since domains are
+		 * only ever over-approximations anyway.
+		 *
+		 * @param sign
+		 * @param bound
+		 * @param lo
+		 * @param hi
+		 * @return
+		 */
+		private boolean propagate(int sign, long bound, int[] lo, int[] hi) {
+			try {
+				long min = 0;
+				for (int i = 0; i != variables.length; ++i) {
+					min = Math.addExact(min, least(sign * coefficients[i], variables[i], lo, hi));
+				}
+				if (min > bound) {
+					return false;
+				}
+				for (int i = 0; i != variables.length; ++i) {
+					int v = variables[i];
+					long a = sign * coefficients[i];
+					// Largest value this term can take, given least values for all others
+					long slack = Math.subtractExact(bound, Math.subtractExact(min, least(a, v, lo, hi)));
+					if (a > 0) {
+						hi[v] = (int) Math.max(Integer.MIN_VALUE, Math.min(hi[v], Math.floorDiv(slack, a)));
+					} else if (a < 0) {
+						lo[v] = (int) Math.min(Integer.MAX_VALUE, Math.max(lo[v], -Math.floorDiv(Math.negateExact(slack), a)));
+					}
+					if (lo[v] > hi[v]) {
+						return false;
+					}
+				}
+			} catch (ArithmeticException e) {
+				// Give up narrowing
+			}
+			return true;
+		}
+
+		private static long least(long a, int v, int[] lo, int[] hi) {
+			return Math.multiplyExact(a, (long) (a > 0 ? lo[v] : hi[v]));
+		}
+
+		/**
+		 * Add the terms of a linear polynomial (multiplied by a given sign) to a map
+		 * from variables to coefficients, returning its constant part.
+		 *
+		 * @param p
+		 * @param sign
+		 * @param terms
+		 * @return
+		 */
+		private static long collect(Variable p, int sign, Map<Integer, Long> terms) {
+			int[] code = p.flatten();
+			long constant = 0;
+			int k = 1;
+			for (int i = code[0]; i > 0; --i) {
+				long coefficient = sign * (long) code[k++];
+				int n = code[k++];
+				if (n == 0) {
+					constant += coefficient;
+				} else if (n == 1) {
+					terms.merge(code[k++], coefficient, Long::sum);
+				} else {
+					throw new IllegalArgumentException("non-linear term in " + p);
+				}
+			}
+			return constant;
 		}
 	}
 }
@@ -0,0 +1,383 @@
+package jsmt.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Coordinates the enumeration of a constraint set across a number of worker
+ * processes, which connect over a socket (see
+ * <code>Constraint.Set.work()</code>). The coordinator hands out subtrees of
+ * the search tree, each identified by a prefix of fixed values together with a
+ * range for the next variable. Once no subtrees remain to be handed out, idle
+ * workers steal work by asking a busy worker to split off the unexplored part
+ * of its shallowest range (which is typically the largest unexplored subtree).
+ * Solution counts and, optionally, the solutions themselves flow back to the
+ * coordinator. Every worker must construct an identical constraint set, which
+ * is checked using its fingerprint when the worker connects. A worker process
+ * can be started using <code>main()</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Coordinator {
+	// Messages sent from worker to coordinator
+	static final byte HELLO = 1;
+	static final byte DONE = 2;
+	static final byte SPLIT = 3;
+	static final byte SOLUTIONS = 4;
+	// Messages sent from coordinator to worker
+	static final byte START = 10;
+	static final byte TASK = 11;
+	static final byte STEAL = 12;
+	static final byte FINISH = 13;
+
+	private final ServerSocket server;
+
+	/**
+	 * Construct a coordinator listening on a given port (or on any free port, if
+	 * this is zero).
+	 *
+	 * @param port
+	 * @throws IOException
+	 */
+	public Coordinator(int port) throws IOException {
+		this.server = new ServerSocket(port);
+	}
+
+	/**
+	 * Get the port on which this coordinator is listening.
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Count the solutions of a given constraint set using a given number of
+	 * workers. This blocks until all workers have connected and the enumeration
+	 * is complete.
+	 *
+	 * @param set
+	 * @param workers
+	 * @throws IOException
+	 * @return
+	 */
+	public BigInteger count(Constraint.Set<?> set, int workers) throws IOException {
+		return run(set, workers, null);
+	}
+
+	/**
+	 * Enumerate the solutions of a given constraint set using a given number of
+	 * workers. Each solution is passed to the given consumer (in no particular
+	 * order) as the raw assignment of values to declared variables, unless the
+	 * consumer is <code>null</code> in which case solutions are only counted. This
+	 * blocks until all workers have connected and the enumeration is complete.
+	 *
+	 * @param set
+	 * @param workers
+	 * @param consumer
+	 * @throws IOException
+	 * @throws IllegalArgumentException if there are fewer than one workers.
+	 * @return The total number of solutions.
+	 */
+	public BigInteger run(Constraint.Set<?> set, int workers, Consumer<int[]> consumer) throws IOException {
+		if (workers < 1) {
+			throw new IllegalArgumentException("invalid workers " + workers);
+		}
+		Constraint[] constraints = set.toArray();
+		if (constraints.length == 0) {
+			throw new IllegalStateException("cannot distribute an empty constraint set");
+		}
+		long fingerprint = Constraint.Checkpoint.fingerprint(constraints);
+		LinkedBlockingQueue<Event> events = new LinkedBlockingQueue<>();
+		ArrayList<Connection> connections = new ArrayList<>();
+		try {
+			for (int i = 0; i != workers; ++i) {
+				Connection c = new Connection(i, server.accept(), events);
+				connections.add(c);
+				c.start();
+			}
+			// Initially, the whole search tree is available
+			int[] root = new int[constraints.length];
+			ArrayDeque<Task> tasks = new ArrayDeque<>();
+			tasks.add(new Task(0, root, constraints[0].lowerBound(root), constraints[0].upperBound(root)));
+			ArrayDeque<Connection> idle = new ArrayDeque<>();
+			// Busy workers, in the order they started their current task
+			ArrayDeque<Connection> busy = new ArrayDeque<>();
+			int stealing = 0;
+			int started = 0;
+			BigInteger total = BigInteger.ZERO;
+			while (started < workers || !tasks.isEmpty() || !busy.isEmpty() || stealing != 0) {
+				Event e = take(events);
+				Connection c = e.connection;
+				DataInputStream in = e.input;
+				switch (e.kind) {
+				case HELLO:
+					if (in.readLong() != fingerprint || in.readInt() != constraints.length) {
+						throw new IOException("worker " + c.id + " has a different constraint set");
+					}
+					c.send(START, out -> out.writeBoolean(consumer != null));
+					started = started + 1;
+					idle.add(c);
+					break;
+				case DONE:
+					total = total.add(new BigInteger(Wire.readBytes(in)));
+					busy.remove(c);
+					idle.add(c);
+					break;
+				case SPLIT:
+					c.stealing = false;
+					stealing = stealing - 1;
+					if (in.readBoolean()) {
+						tasks.add(Task.read(in));
+					}
+					break;
+				case SOLUTIONS:
+					int n = in.readInt();
+					for (int i = 0; i != n; ++i) {
+						int[] solution = new int[constraints.length];
+						for (int j = 0; j != solution.length; ++j) {
+							solution[j] = in.readInt();
+						}
+						consumer.accept(set.toDeclared(solution));
+					}
+					break;
+				default:
+					throw new IOException("unknown message " + e.kind + " from worker " + c.id);
+				}
+				// Hand out available tasks to idle workers
+				while (!idle.isEmpty() && !tasks.isEmpty()) {
+					Connection w = idle.poll();
+					Task t = tasks.poll();
+					w.send(TASK, out -> t.write(out));
+					busy.add(w);
+				}
+				// Steal work from busy workers (longest running first) for idle workers
+				for (Connection w : busy) {
+					if (stealing >= idle.size()) {
+						break;
+					} else if (!w.stealing) {
+						w.stealing = true;
+						stealing = stealing + 1;
+						w.send(STEAL, out -> {
+						});
+					}
+				}
+			}
+			for (Connection c : connections) {
+				c.send(FINISH, out -> {
+				});
+			}
+			return total;
+		} finally {
+			for (Connection c : connections) {
+				c.close();
+			}
+		}
+	}
+
+	/**
+	 * Close this coordinator, such that it no longer accepts connections.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Run a worker for the coordinator at a given host and port. The constraint
+	 * set is constructed by a given class, which must implement
+	 * <code>Supplier&lt;Constraint.Set&lt;?&gt;&gt;</code> and have a public
+	 * constructor which takes no arguments. This must construct a constraint set
+	 * identical to that being enumerated by the coordinator. For example:
+	 *
+	 * <pre>
+	 * java jsmt.core.Coordinator localhost 4000 my.Problem
+	 * </pre>
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("usage: java jsmt.core.Coordinator <host> <port> <class>");
+			System.exit(1);
+		}
+		Supplier<?> supplier = (Supplier<?>) Class.forName(args[2]).getDeclaredConstructor().newInstance();
+		Object set = supplier.get();
+		if (!(set instanceof Constraint.Set)) {
+			throw new IllegalArgumentException(args[2] + " does not supply a constraint set");
+		}
+		((Constraint.Set<?>) set).work(args[0], Integer.parseInt(args[1]));
+	}
+
+	private static Event take(LinkedBlockingQueue<Event> events) throws IOException {
+		try {
+			Event e = events.take();
+			if (e.failure != null) {
+				throw e.failure;
+			}
+			return e;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		}
+	}
+
+	/**
+	 * Represents a subtree of the search tree, made up of all assignments which
+	 * extend a given prefix and where the variable at a given depth lies within a
+	 * given range.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	static final class Task {
+		final int depth;
+		final int[] prefix;
+		final int lo;
+		final int hi;
+
+		Task(int depth, int[] prefix, int lo, int hi) {
+			this.depth = depth;
+			this.prefix = prefix;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(depth);
+			for (int i = 0; i != depth; ++i) {
+				out.writeInt(prefix[i]);
+			}
+			out.writeInt(lo);
+			out.writeInt(hi);
+		}
+
+		static Task read(DataInputStream in) throws IOException {
+			int depth = in.readInt();
+			int[] prefix = new int[depth];
+			for (int i = 0; i != depth; ++i) {
+				prefix[i] = in.readInt();
+			}
+			return new Task(depth, prefix, in.readInt(), in.readInt());
+		}
+	}
+
+	/**
+	 * Writes the body of a message.
+	 */
+	interface Body {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * A message received from a worker (or a failure on its connection).
+	 */
+	private static final class Event {
+		final Connection connection;
+		final byte kind;
+		final DataInputStream input;
+		final IOException failure;
+
+		Event(Connection connection, byte kind, DataInputStream input, IOException failure) {
+			this.connection = connection;
+			this.kind = kind;
+			this.input = input;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Represents the connection to a single worker. Messages from the worker are
+	 * read on a dedicated thread, and posted as events to the coordinator.
+	 */
+	private static final class Connection extends Thread {
+		private final int id;
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final LinkedBlockingQueue<Event> events;
+		/**
+		 * Indicates whether a steal request is outstanding for this worker.
+		 */
+		private boolean stealing;
+
+		Connection(int id, Socket socket, LinkedBlockingQueue<Event> events) throws IOException {
+			this.id = id;
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			this.events = events;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					byte kind = in.readByte();
+					byte[] body = Wire.readBytes(in);
+					events.put(new Event(this, kind, new DataInputStream(new ByteArrayInputStream(body)), null));
+				}
+			} catch (IOException e) {
+				events.add(new Event(this, (byte) 0, null, e));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void send(byte kind, Body body) throws IOException {
+			Wire.send(out, kind, body);
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Provides the wire format shared between the coordinator and workers. Each
+	 * message consists of a kind, followed by the length of its body and then the
+	 * body itself.
+	 */
+	static final class Wire {
+		static void send(DataOutputStream out, byte kind, Body body) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			body.write(new DataOutputStream(bytes));
+			out.writeByte(kind);
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			out.flush();
+		}
+
+		static byte[] readBytes(DataInputStream in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return bytes;
+		}
+
+		static DataInputStream readBody(DataInputStream in) throws IOException {
+			return new DataInputStream(new ByteArrayInputStream(readBytes(in)));
+		}
+	}
+}
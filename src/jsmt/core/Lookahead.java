@@ -0,0 +1,180 @@
+package jsmt.core;
+
+import java.util.BitSet;
+
+/**
+ * Prunes partial assignments for which no completion can satisfy some later
+ * constraint, using interval arithmetic. A later constraint whose polynomial
+ * bounds read several variables (such as <code>equal(x.add(y))</code>) is
+ * normally only found to be unsatisfiable once the search reaches it. Instead,
+ * after each variable it reads is assigned, the domains of every variable upto
+ * it are computed by interval arithmetic over the values assigned so far. If
+ * any domain is empty, then no completion of the current prefix can be a
+ * solution. This check is made when entering the next variable, whose range is
+ * then empty.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class Lookahead {
+	private final CompiledConstraint[] compiled;
+	private final BitSet[] dependencies;
+	/**
+	 * For each variable, the furthest variable to check upon entering it, or
+	 * <code>-1</code> if there is none.
+	 */
+	private final int[] horizon;
+	private final ThreadLocal<int[][]> boxes;
+
+	private Lookahead(CompiledConstraint[] compiled, BitSet[] dependencies, int[] horizon) {
+		final int n = compiled.length;
+		this.compiled = compiled;
+		this.dependencies = dependencies;
+		this.horizon = horizon;
+		this.boxes = ThreadLocal.withInitial(() -> new int[2][n]);
+	}
+
+	/**
+	 * Wrap the constraints on those variables at which some later constraint
+	 * should be checked, or return the constraints unchanged if no constraint
+	 * warrants it.
+	 *
+	 * @param constraints
+	 * @return
+	 */
+	public static Constraint[] apply(Constraint[] constraints) {
+		final int n = constraints.length;
+		CompiledConstraint[] compiled = new CompiledConstraint[n];
+		BitSet[] deps = new BitSet[n];
+		int[] horizon = new int[n];
+		boolean any = false;
+		for (int w = 0; w != n; ++w) {
+			Constraint c = CompiledConstraint.compile(constraints[w]);
+			compiled[w] = c instanceof CompiledConstraint ? (CompiledConstraint) c : null;
+			deps[w] = new BitSet();
+			constraints[w].dependencies(w, deps[w]);
+			deps[w].clear(w, n);
+			horizon[w] = -1;
+		}
+		for (int w = 0; w != n; ++w) {
+			if (compiled[w] != null && compiled[w].isMultivariate()) {
+				// Check w after each variable it reads is assigned
+				for (int d = deps[w].nextSetBit(0); d >= 0 && d + 1 < w; d = deps[w].nextSetBit(d + 1)) {
+					horizon[d + 1] = Math.max(horizon[d + 1], w);
+					any = true;
+				}
+			}
+		}
+		if (!any) {
+			return constraints;
+		}
+		Lookahead lookahead = new Lookahead(compiled, deps, horizon);
+		Constraint[] result = constraints.clone();
+		for (int v = 0; v != n; ++v) {
+			if (horizon[v] >= 0) {
+				result[v] = new Check(lookahead, v, constraints[v]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determine whether some completion of the assignment to variables before a
+	 * given variable could satisfy every constraint upto its horizon.
+	 *
+	 * @param v
+	 * @param values
+	 * @return
+	 */
+	private boolean feasible(int v, int[] values) {
+		final int end = horizon[v];
+		int[][] box = boxes.get();
+		int[] lo = box[0];
+		int[] hi = box[1];
+		for (int u = v; u <= end; ++u) {
+			BitSet deps = dependencies[u];
+			for (int d = deps.nextSetBit(0); d >= 0 && d < v; d = deps.nextSetBit(d + 1)) {
+				lo[d] = values[d];
+				hi[d] = values[d];
+			}
+		}
+		for (int u = v; u <= end; ++u) {
+			lo[u] = Integer.MIN_VALUE;
+			hi[u] = Integer.MAX_VALUE;
+			if (compiled[u] != null && !compiled[u].narrow(u, lo, hi)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps the constraint on a variable, such that its range is empty if the
+	 * current prefix cannot be completed.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Check extends Constraint {
+		private final Lookahead lookahead;
+		private final int variable;
+		private final Constraint constraint;
+		/**
+		 * The earlier variables read when checking feasibility.
+		 */
+		private final BitSet reads;
+
+		public Check(Lookahead lookahead, int variable, Constraint constraint) {
+			this.lookahead = lookahead;
+			this.variable = variable;
+			this.constraint = constraint;
+			this.reads = new BitSet();
+			for (int u = variable; u <= lookahead.horizon[variable]; ++u) {
+				reads.or(lookahead.dependencies[u]);
+			}
+			reads.clear(variable, lookahead.compiled.length);
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			if (!lookahead.feasible(variable, values)) {
+				// Empty range, regardless of upper bound
+				return Integer.MAX_VALUE;
+			}
+			return constraint.lowerBound(values);
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return constraint.upperBound(values);
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			return constraint.nextValue(values, value);
+		}
+
+		@Override
+		boolean isSparse() {
+			return constraint.isSparse();
+		}
+
+		@Override
+		public void dependencies(int v, BitSet deps) {
+			constraint.dependencies(v, deps);
+			deps.or(reads);
+		}
+
+		@Override
+		boolean compile(CompiledConstraint.Builder builder) {
+			// NOTE: the look-ahead is dropped, which is safe but prunes less
+			return constraint.compile(builder);
+		}
+
+		@Override
+		public long fingerprint() {
+			// NOTE: the look-ahead never changes which values are permitted
+			return constraint.fingerprint();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package jsmt.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of nogoods, that is subtrees of the search which are known to
+ * contain no solutions. A subtree is identified by the variable at its root
+ * along with the values of those earlier variables upon which it depends.
+ * Since the subtree cannot depend upon any other earlier variables, it
+ * contains no solutions whenever these values recur (even under a different
+ * prefix). When the cache is full, the least recently used nogood is evicted.
+ * The cache is thread safe, and can be shared between iterators over the same
+ * constraint set.
+ *
+ * @author David J. Pearce
+ *
+ */
+public final class NogoodCache {
+	private final int capacity;
+	private final LinkedHashMap<Key, Boolean> entries;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public NogoodCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("invalid capacity");
+		}
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+				if (size() > NogoodCache.this.capacity) {
+					evictions = evictions + 1;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Check whether the subtree rooted at a given variable is known to contain no
+	 * solutions.
+	 *
+	 * @param variable The variable at the root of the subtree.
+	 * @param frontier The earlier variables upon which the subtree depends.
+	 * @param values   The current assignment.
+	 * @return
+	 */
+	synchronized boolean contains(int variable, BitSet frontier, int[] values) {
+		if (entries.get(new Key(variable, frontier, values)) != null) {
+			hits = hits + 1;
+			return true;
+		} else {
+			misses = misses + 1;
+			return false;
+		}
+	}
+
+	/**
+	 * Record that the subtree rooted at a given variable contains no solutions.
+	 *
+	 * @param variable The variable at the root of the subtree.
+	 * @param frontier The earlier variables upon which the subtree depends.
+	 * @param values   The current assignment.
+	 */
+	synchronized void add(int variable, BitSet frontier, int[] values) {
+		entries.put(new Key(variable, frontier, values), Boolean.TRUE);
+	}
+
+	/**
+	 * Remove all nogoods from this cache. The statistics are not reset.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of lookups which found a nogood, and hence skipped a subtree.
+	 *
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups which did not find a nogood.
+	 *
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get the number of nogoods evicted to keep within capacity.
+	 *
+	 * @return
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "nogoods=" + entries.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions;
+	}
+
+	/**
+	 * Identifies a subtree by the variable at its root, along with the values of
+	 * those earlier variables upon which it depends.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Key {
+		private final int variable;
+		private final int[] values;
+		private final int hash;
+
+		public Key(int variable, BitSet frontier, int[] values) {
+			this.variable = variable;
+			this.values = new int[frontier.cardinality()];
+			int k = 0;
+			for (int i = frontier.nextSetBit(0); i >= 0; i = frontier.nextSetBit(i + 1)) {
+				this.values[k++] = values[i];
+			}
+			this.hash = (31 * variable) + Arrays.hashCode(this.values);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return variable == k.variable && Arrays.equals(values, k.values);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
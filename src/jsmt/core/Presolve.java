@@ -0,0 +1,128 @@
+package jsmt.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Infers a static domain for every variable of a constraint set before the
+ * search begins. Domains are computed by interval arithmetic, sweeping forwards
+ * over the constraint on each variable and then applying any forward
+ * constraints, until a fixed point is reached. The constraint on each variable
+ * can then be tightened to its domain, such that the search never considers
+ * values outside of it. Variables whose domain remains unbounded (e.g. because
+ * they are only bounded on one side) are also identified, since enumerating
+ * them is unlikely to terminate in reasonable time.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class Presolve {
+	/**
+	 * Maximum number of rounds to perform before giving up on reaching a fixed
+	 * point. This is safe, since domains are only ever over-approximations.
+	 */
+	private static final int ROUNDS = 64;
+
+	private final int[] lo;
+	private final int[] hi;
+	private final boolean feasible;
+
+	public Presolve(Constraint[] constraints, Propagator[] propagators) {
+		final int n = constraints.length;
+		this.lo = new int[n];
+		this.hi = new int[n];
+		Arrays.fill(lo, Integer.MIN_VALUE);
+		Arrays.fill(hi, Integer.MAX_VALUE);
+		this.feasible = solve(constraints, propagators);
+	}
+
+	/**
+	 * Determine whether the constraint set may have solutions. If not, the domains
+	 * are meaningless.
+	 *
+	 * @return
+	 */
+	public boolean isFeasible() {
+		return feasible;
+	}
+
+	/**
+	 * Get the domain inferred for each variable, as an array of least values and an
+	 * array of greatest values.
+	 *
+	 * @return
+	 */
+	public int[][] domains() {
+		return new int[][] { lo.clone(), hi.clone() };
+	}
+
+	/**
+	 * Construct a constraint equivalent to that on a given variable, whose range
+	 * never extends outside the variable's domain.
+	 *
+	 * @param variable
+	 * @param constraint
+	 * @return
+	 */
+	public Constraint restrict(int variable, Constraint constraint) {
+		Constraint c = CompiledConstraint.compile(constraint);
+		if (c instanceof CompiledConstraint) {
+			return ((CompiledConstraint) c).restrict(variable, lo, hi);
+		} else if (lo[variable] != Integer.MIN_VALUE || hi[variable] != Integer.MAX_VALUE) {
+			return Constraints.and(Constraints.between(lo[variable], hi[variable]), c);
+		} else {
+			return c;
+		}
+	}
+
+	/**
+	 * Determine those variables whose domain is unbounded, meaning that it reaches
+	 * the extreme of the integer range on at least one side.
+	 *
+	 * @return
+	 */
+	public BitSet unbounded() {
+		BitSet r = new BitSet();
+		for (int v = 0; v != lo.length; ++v) {
+			// NOTE: upper bound constraints use MIN_VALUE+1 as their lower bound
+			if (lo[v] <= Integer.MIN_VALUE + 1 || hi[v] == Integer.MAX_VALUE) {
+				r.set(v);
+			}
+		}
+		return r;
+	}
+
+	private boolean solve(Constraint[] constraints, Propagator[] propagators) {
+		final int n = constraints.length;
+		CompiledConstraint[] compiled = new CompiledConstraint[n];
+		for (int v = 0; v != n; ++v) {
+			Constraint c = CompiledConstraint.compile(constraints[v]);
+			compiled[v] = c instanceof CompiledConstraint ? (CompiledConstraint) c : null;
+		}
+		for (int round = 0; round != ROUNDS; ++round) {
+			long before = width();
+			for (int v = 0; v != n; ++v) {
+				if (compiled[v] != null && !compiled[v].narrow(v, lo, hi)) {
+					return false;
+				}
+			}
+			for (Propagator p : propagators) {
+				if (!p.propagate(lo, hi)) {
+					return false;
+				}
+			}
+			if (width() == before) {
+				break;
+			}
+		}
+		return true;
+	}
+
+	private long width() {
+		long w = 0;
+		for (int v = 0; v != lo.length; ++v) {
+			w += (long) hi[v] - lo[v];
+		}
+		return w;
+	}
+}
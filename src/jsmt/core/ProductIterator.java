@@ -0,0 +1,157 @@
+package jsmt.core;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Enumerates the solutions of a constraint set which decomposes into
+ * independent components, as the Cartesian product of the solutions of each
+ * component. Every component except the first is enumerated exactly once into
+ * a compact table holding only the values of its own variables. The first
+ * component is streamed from its cursor, since it is only enumerated once
+ * anyway. Solutions are produced with the last component varying fastest.
+ *
+ * @author David J. Pearce
+ *
+ * @param <T>
+ */
+final class ProductIterator<T> implements Iterator<T> {
+	private final Function<int[], T> projection;
+	/**
+	 * The variables making up each component.
+	 */
+	private final int[][] components;
+	/**
+	 * Cursor over the solutions of the first component.
+	 */
+	private final Constraint.Cursor outer;
+	/**
+	 * The solutions for each subsequent component stored row by row, where each row
+	 * holds the values of that component's variables.
+	 */
+	private final int[][] tables;
+	/**
+	 * The number of rows in each table.
+	 */
+	private final int[] rows;
+	/**
+	 * The current row in each table.
+	 */
+	private final int[] current;
+	/**
+	 * The current solution, or <code>null</code> if there are no more solutions.
+	 */
+	private int[] values;
+
+	/**
+	 * Construct a product iterator from a cursor over each component, where each
+	 * cursor is positioned before its first solution.
+	 *
+	 * @param projection
+	 * @param n          The total number of variables.
+	 * @param components The variables making up each component.
+	 * @param cursors    Cursor for each component.
+	 */
+	public ProductIterator(Function<int[], T> projection, int n, int[][] components, Constraint.Cursor[] cursors) {
+		final int m = components.length;
+		this.projection = projection;
+		this.components = components;
+		this.outer = cursors[0];
+		this.tables = new int[m][];
+		this.rows = new int[m];
+		this.current = new int[m];
+		this.values = new int[n];
+		for (int i = 1; i != m; ++i) {
+			tabulate(i, cursors[i]);
+			if (rows[i] == 0) {
+				values = null;
+				return;
+			}
+		}
+		advanceOuter();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return values != null;
+	}
+
+	@Override
+	public T next() {
+		if (values == null) {
+			throw new NoSuchElementException();
+		}
+		T val = projection.apply(values);
+		// Advance the innermost component which has rows remaining
+		for (int i = tables.length - 1; i > 0; --i) {
+			if (current[i] + 1 < rows[i]) {
+				select(i, current[i] + 1);
+				for (int j = i + 1; j < tables.length; ++j) {
+					select(j, 0);
+				}
+				return val;
+			}
+		}
+		advanceOuter();
+		return val;
+	}
+
+	/**
+	 * Move onto the next solution of the first component, and reset every other
+	 * component to its first row.
+	 */
+	private void advanceOuter() {
+		if (!outer.advance()) {
+			values = null;
+			return;
+		}
+		for (int v : components[0]) {
+			values[v] = outer.get(v);
+		}
+		for (int i = 1; i < tables.length; ++i) {
+			select(i, 0);
+		}
+	}
+
+	/**
+	 * Copy a given row of a component's table into the current solution.
+	 *
+	 * @param i
+	 * @param row
+	 */
+	private void select(int i, int row) {
+		final int[] vars = components[i];
+		final int[] table = tables[i];
+		int k = row * vars.length;
+		for (int j = 0; j != vars.length; ++j) {
+			values[vars[j]] = table[k + j];
+		}
+		current[i] = row;
+	}
+
+	/**
+	 * Enumerate all solutions of a given component into its table.
+	 *
+	 * @param i
+	 * @param cursor
+	 */
+	private void tabulate(int i, Constraint.Cursor cursor) {
+		final int[] vars = components[i];
+		int[] table = new int[Math.max(1, vars.length) * 16];
+		int count = 0;
+		while (cursor.advance()) {
+			int k = count * vars.length;
+			if (k + vars.length > table.length) {
+				table = Arrays.copyOf(table, table.length * 2);
+			}
+			for (int j = 0; j != vars.length; ++j) {
+				table[k + j] = cursor.get(vars[j]);
+			}
+			count = count + 1;
+		}
+		tables[i] = table;
+		rows[i] = count;
+	}
+}
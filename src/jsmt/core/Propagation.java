@@ -0,0 +1,313 @@
+package jsmt.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Enforces a set of propagators during the search. The constraint on every
+ * variable mentioned by some propagator is wrapped so that, upon entering
+ * that variable, the domains of all such variables are computed afresh by
+ * propagating from the values of those already assigned. The range of the
+ * variable being entered is then narrowed to its domain, and is empty if any
+ * domain becomes empty. Since this only reads variables which have already
+ * been assigned, the search itself is unaffected.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class Propagation {
+	/**
+	 * Maximum number of rounds of propagation to perform before giving up on
+	 * reaching a fixed point. This is safe, since domains are only ever
+	 * over-approximations.
+	 */
+	private static final int ROUNDS = 64;
+
+	private final Propagator[] propagators;
+	/**
+	 * The variables mentioned by some propagator, in order of declaration.
+	 */
+	private final int[] watched;
+	/**
+	 * For each watched variable, those propagators mentioning it which may exclude
+	 * values inside its domain.
+	 */
+	private final Propagator[][] sparse;
+	/**
+	 * The initial domain of each watched variable, as determined from the static
+	 * bounds of its constraint.
+	 */
+	private final int[] initialLo;
+	private final int[] initialHi;
+	/**
+	 * Size of the domain arrays needed to hold every watched variable.
+	 */
+	private final int size;
+	/**
+	 * The most recently computed domains for each thread.
+	 */
+	private final ThreadLocal<Domains> last;
+	/**
+	 * Combined fingerprint of the propagators, which is folded into that of every
+	 * wrapped constraint.
+	 */
+	private final long fingerprint;
+
+	private Propagation(Propagator[] propagators, int[] watched, Constraint[] constraints) {
+		this.propagators = propagators;
+		this.watched = watched;
+		this.size = watched[watched.length - 1] + 1;
+		this.last = ThreadLocal.withInitial(() -> new Domains(size, watched.length));
+		this.initialLo = new int[watched.length];
+		this.initialHi = new int[watched.length];
+		this.sparse = new Propagator[watched.length][];
+		long h = CompiledConstraint.mix(10, propagators.length);
+		for (Propagator p : propagators) {
+			h = CompiledConstraint.mix(h, p.fingerprint());
+		}
+		this.fingerprint = h;
+		for (int i = 0; i != watched.length; ++i) {
+			int[] range = CompiledConstraint.range(constraints[watched[i]]);
+			initialLo[i] = range[0];
+			initialHi[i] = range[1];
+			ArrayList<Propagator> ps = new ArrayList<>();
+			for (Propagator p : propagators) {
+				if (p.isSparse() && mentions(p, watched[i])) {
+					ps.add(p);
+				}
+			}
+			sparse[i] = ps.toArray(new Propagator[ps.size()]);
+		}
+	}
+
+	/**
+	 * Wrap the constraints on those variables mentioned by a given set of
+	 * propagators, such that the propagators are enforced during search.
+	 *
+	 * @param constraints
+	 * @param propagators
+	 * @return
+	 */
+	public static Constraint[] apply(Constraint[] constraints, Propagator[] propagators) {
+		if (propagators.length == 0) {
+			return constraints;
+		}
+		BitSet vars = new BitSet();
+		for (Propagator p : propagators) {
+			for (int v : p.variables()) {
+				if (v < 0 || v >= constraints.length) {
+					throw new IllegalArgumentException("invalid variable " + v);
+				}
+				vars.set(v);
+			}
+		}
+		Propagation propagation = new Propagation(propagators, vars.stream().toArray(), constraints);
+		Constraint[] result = constraints.clone();
+		for (int i = 0; i != propagation.watched.length; ++i) {
+			int v = propagation.watched[i];
+			result[v] = new Bound(propagation, i, constraints[v]);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the domains of all watched variables, given that the first
+	 * <code>k</code> of them have been assigned. Since both bounds of a variable
+	 * are requested in turn for the same assignment, the most recent result is
+	 * remembered (for each thread) and reused if the assigned values match.
+	 *
+	 * @param k
+	 * @param values
+	 * @return
+	 */
+	private Domains domains(int k, int[] values) {
+		Domains d = last.get();
+		if (d.k == k && d.matches(watched, values)) {
+			return d;
+		}
+		d.k = k;
+		for (int i = 0; i != k; ++i) {
+			d.key[i] = values[watched[i]];
+		}
+		d.empty = !propagate(k, values, d.lo, d.hi);
+		return d;
+	}
+
+	/**
+	 * Compute the domains of all watched variables, given that the first
+	 * <code>k</code> of them have been assigned.
+	 *
+	 * @param k
+	 * @param values
+	 * @param lo
+	 * @param hi
+	 * @return <code>false</code> if some domain is empty.
+	 */
+	private boolean propagate(int k, int[] values, int[] lo, int[] hi) {
+		for (int i = 0; i != watched.length; ++i) {
+			int v = watched[i];
+			if (i < k) {
+				lo[v] = values[v];
+				hi[v] = values[v];
+			} else {
+				lo[v] = initialLo[i];
+				hi[v] = initialHi[i];
+			}
+		}
+		long width = width(lo, hi);
+		for (int r = 0; r != ROUNDS; ++r) {
+			for (Propagator p : propagators) {
+				if (!p.propagate(lo, hi)) {
+					return false;
+				}
+			}
+			// Since domains only narrow, unchanged width means a fixed point
+			long w = width(lo, hi);
+			if (w < 0) {
+				return false;
+			} else if (w == width) {
+				break;
+			}
+			width = w;
+		}
+		return true;
+	}
+
+	private static boolean mentions(Propagator p, int variable) {
+		for (int v : p.variables()) {
+			if (v == variable) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determine the total width of all domains, or <code>-1</code> if some domain
+	 * is empty.
+	 *
+	 * @param lo
+	 * @param hi
+	 * @return
+	 */
+	private long width(int[] lo, int[] hi) {
+		long w = 0;
+		for (int v : watched) {
+			if (lo[v] > hi[v]) {
+				return -1;
+			}
+			w += (long) hi[v] - lo[v];
+		}
+		return w;
+	}
+
+	/**
+	 * Wraps the constraint on a watched variable, narrowing its range to the
+	 * domain determined by propagation.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Bound extends Constraint {
+		private final Propagation propagation;
+		/**
+		 * Index of this variable amongst the watched variables.
+		 */
+		private final int index;
+		private final int variable;
+		private final Constraint constraint;
+
+		public Bound(Propagation propagation, int index, Constraint constraint) {
+			this.propagation = propagation;
+			this.index = index;
+			this.variable = propagation.watched[index];
+			this.constraint = constraint;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			Domains d = propagation.domains(index, values);
+			return d.empty ? Integer.MAX_VALUE : Math.max(d.lo[variable], constraint.lowerBound(values));
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			Domains d = propagation.domains(index, values);
+			return d.empty ? Integer.MIN_VALUE : Math.min(d.hi[variable], constraint.upperBound(values));
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			Propagator[] ps = propagation.sparse[index];
+			if (ps.length == 0) {
+				return constraint.nextValue(values, value);
+			}
+			Domains d = propagation.domains(index, values);
+			long r = value;
+			while (true) {
+				long next = constraint.nextValue(values, (int) r);
+				for (int i = 0; i != ps.length && next <= Integer.MAX_VALUE; ++i) {
+					next = ps[i].nextValue(variable, d.lo, d.hi, (int) next);
+				}
+				if (next > Integer.MAX_VALUE) {
+					return Long.MAX_VALUE;
+				} else if (next == r) {
+					return r;
+				}
+				r = next;
+			}
+		}
+
+		@Override
+		boolean isSparse() {
+			return constraint.isSparse() || propagation.sparse[index].length != 0;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			constraint.dependencies(variable, deps);
+			// Propagation reads every watched variable assigned before this
+			for (int i = 0; i != index; ++i) {
+				deps.set(propagation.watched[i]);
+			}
+		}
+
+		@Override
+		public long fingerprint() {
+			return CompiledConstraint.mix(constraint.fingerprint(), propagation.fingerprint);
+		}
+	}
+
+	/**
+	 * The domains computed for a given assignment of the first <code>k</code>
+	 * watched variables.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Domains {
+		private final int[] lo;
+		private final int[] hi;
+		/**
+		 * The values of the assigned watched variables.
+		 */
+		private final int[] key;
+		private int k = -1;
+		private boolean empty;
+
+		public Domains(int size, int watched) {
+			this.lo = new int[size];
+			this.hi = new int[size];
+			this.key = new int[watched];
+		}
+
+		public boolean matches(int[] watched, int[] values) {
+			for (int i = 0; i != k; ++i) {
+				if (key[i] != values[watched[i]]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
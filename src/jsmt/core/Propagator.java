@@ -0,0 +1,97 @@
+package jsmt.core;
+
+import java.util.Arrays;
+
+/**
+ * Represents a constraint over several variables which, unlike an ordinary
+ * constraint, may refer to variables declared after those it is applied to.
+ * Such a constraint is enforced by narrowing the domains of its variables,
+ * that is the range of values each could take in any solution. This allows
+ * the search to prune a prefix as soon as some later variable is left with an
+ * empty domain, rather than only discovering this upon reaching that variable.
+ *
+ * @author David J. Pearce
+ *
+ */
+public abstract class Propagator {
+	/**
+	 * Get the variables which this constraint refers to.
+	 *
+	 * @return
+	 */
+	public abstract int[] variables();
+
+	/**
+	 * Narrow the domains of the variables which this constraint refers to, where
+	 * the domain of variable <code>v</code> is given by <code>lo[v]</code> upto
+	 * <code>hi[v]</code> (inclusive). Domains must never be narrowed such that they
+	 * exclude a value which some solution could take. When every variable except
+	 * one has a singleton domain, the domain of the remaining variable must be
+	 * narrowed to exactly those values for which the constraint holds (assuming
+	 * they form a range).
+	 *
+	 * @param lo
+	 * @param hi
+	 * @return <code>false</code> if some domain has become empty (i.e. the
+	 *         constraint cannot hold).
+	 */
+	public abstract boolean propagate(int[] lo, int[] hi);
+
+	/**
+	 * Determine the least value no less than a given value which a variable could
+	 * take, given the domains of the variables which this constraint refers to.
+	 * This allows a constraint to exclude values inside a domain (which
+	 * <code>propagate()</code> cannot), such that the search skips over them. When
+	 * every other variable has a singleton domain, exactly those values for which
+	 * the constraint holds must be permitted. By default, every value in the
+	 * domain is permitted.
+	 *
+	 * @param variable
+	 * @param lo
+	 * @param hi
+	 * @param value
+	 * @return The least permitted value, or <code>Long.MAX_VALUE</code> if there
+	 *         is none.
+	 */
+	public long nextValue(int variable, int[] lo, int[] hi, int value) {
+		return value;
+	}
+
+	/**
+	 * Compute a fingerprint which identifies the structure of this constraint,
+	 * for use in the fingerprint of any constraint set it belongs to. By default,
+	 * this is determined by its class and the variables it refers to. Hence,
+	 * constraints with further parameters should override this.
+	 *
+	 * @return
+	 */
+	public long fingerprint() {
+		return CompiledConstraint.mix(getClass().getName().hashCode(), Arrays.hashCode(variables()));
+	}
+
+	/**
+	 * Determine whether this constraint may exclude values inside a domain, which
+	 * holds for any constraint overriding <code>nextValue()</code>.
+	 *
+	 * @return
+	 */
+	boolean isSparse() {
+		return SPARSE.get(getClass());
+	}
+
+	/**
+	 * Determines, for each class of constraint, whether it overrides
+	 * <code>nextValue()</code>.
+	 */
+	private static final ClassValue<Boolean> SPARSE = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("nextValue", int.class, int[].class, int[].class, int.class)
+						.getDeclaringClass() != Propagator.class;
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+		}
+	};
+}
@@ -0,0 +1,241 @@
+package jsmt.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Divides the solution space of a set of constraints into a given number of
+ * disjoint, contiguous slices in lexicographic order. The search tree is first
+ * broken into pieces by repeatedly splitting the piece with the largest
+ * estimated size, and then consecutive pieces are grouped into slices with
+ * roughly equal estimated size. Sizes are estimated using Knuth's method of
+ * random probing with a fixed seed. Thus, the slices are entirely
+ * deterministic, and any JVM can compute them independently.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class ShardPlanner {
+	/**
+	 * Number of pieces to create for each slice.
+	 */
+	private static final int PIECES_PER_SLICE = 16;
+	/**
+	 * Number of random probes used to estimate the size of a piece.
+	 */
+	private static final int PROBES = 32;
+	private static final long SEED = 0x5eed;
+
+	private final Constraint[] constraints;
+
+	public ShardPlanner(Constraint[] constraints) {
+		this.constraints = constraints;
+	}
+
+	/**
+	 * Compute the boundaries for a given number of slices. Slice <code>i</code>
+	 * covers every assignment from boundary <code>i</code> (inclusive) upto
+	 * boundary <code>i+1</code> (exclusive). Each boundary is a prefix, where an
+	 * assignment is compared against it using only the variables it covers. The
+	 * first and last boundaries are <code>null</code>, meaning unbounded.
+	 *
+	 * @param count
+	 * @return
+	 */
+	public int[][] boundaries(int count) {
+		ArrayList<Piece> pieces = partition(count * PIECES_PER_SLICE);
+		double total = 0;
+		for (Piece p : pieces) {
+			total += p.estimate;
+		}
+		int[][] bounds = new int[count + 1][];
+		double cumulative = 0;
+		int j = 0;
+		for (int i = 1; i < count; ++i) {
+			double target = (total * i) / count;
+			// Find first piece beginning at or beyond the target
+			while (j < pieces.size() - 1 && cumulative + (pieces.get(j).estimate / 2) < target) {
+				cumulative += pieces.get(j).estimate;
+				j = j + 1;
+			}
+			bounds[i] = pieces.get(j).start();
+		}
+		return bounds;
+	}
+
+	/**
+	 * Break the search tree into (at most) a given number of pieces, returned in
+	 * lexicographic order.
+	 *
+	 * @param n
+	 * @return
+	 */
+	private ArrayList<Piece> partition(int n) {
+		ArrayList<Piece> pieces = new ArrayList<>();
+		int[] values = new int[constraints.length];
+		pieces.add(new Piece(values, 0, constraints[0].lowerBound(values), constraints[0].upperBound(values)));
+		while (pieces.size() < n) {
+			int largest = -1;
+			for (int i = 0; i != pieces.size(); ++i) {
+				Piece ith = pieces.get(i);
+				if (ith.isSplittable() && (largest < 0 || ith.estimate > pieces.get(largest).estimate)) {
+					largest = i;
+				}
+			}
+			if (largest < 0) {
+				break;
+			}
+			Piece p = pieces.get(largest);
+			if (p.lo < p.hi) {
+				// Split the range at this depth
+				int mid = (int) (p.lo + (((long) p.hi - p.lo + 1) / 2));
+				pieces.set(largest, new Piece(p.prefix, p.depth, p.lo, mid - 1));
+				pieces.add(largest + 1, new Piece(p.prefix, p.depth, mid, p.hi));
+			} else {
+				// Descend into the only value at this depth
+				int[] prefix = Arrays.copyOf(p.prefix, p.prefix.length);
+				prefix[p.depth] = p.lo;
+				int d = p.depth + 1;
+				pieces.set(largest,
+						new Piece(prefix, d, constraints[d].lowerBound(prefix), constraints[d].upperBound(prefix)));
+			}
+		}
+		return pieces;
+	}
+
+	/**
+	 * Estimate the number of solutions in a piece by randomly probing paths from
+	 * its root, and multiplying the branching factors seen along each path.
+	 *
+	 * @param piece
+	 * @return
+	 */
+	private double estimate(Piece piece) {
+		if (piece.lo > piece.hi) {
+			return 0;
+		}
+		final int n = constraints.length;
+		Random random = new Random(SEED ^ Arrays.hashCode(piece.start()));
+		int[] values = Arrays.copyOf(piece.prefix, n);
+		double sum = 0;
+		for (int p = 0; p != PROBES; ++p) {
+			double size = (double) piece.hi - piece.lo + 1;
+			values[piece.depth] = pick(random, piece.lo, piece.hi);
+			for (int d = piece.depth + 1; d < n && size > 0; ++d) {
+				int lb = constraints[d].lowerBound(values);
+				int ub = constraints[d].upperBound(values);
+				if (lb > ub) {
+					size = 0;
+				} else {
+					size = size * ((double) ub - lb + 1);
+					values[d] = pick(random, lb, ub);
+				}
+			}
+			sum += size;
+		}
+		return sum / PROBES;
+	}
+
+	private static int pick(Random random, int lo, int hi) {
+		long width = (long) hi - lo + 1;
+		return (int) (lo + (long) (random.nextDouble() * width));
+	}
+
+	/**
+	 * Represents a piece of the search tree, made up of all assignments extending a
+	 * given prefix where the variable at a given depth is within a given range.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class Piece {
+		private final int[] prefix;
+		private final int depth;
+		private final int lo;
+		private final int hi;
+		private final double estimate;
+
+		public Piece(int[] prefix, int depth, int lo, int hi) {
+			this.prefix = prefix;
+			this.depth = depth;
+			this.lo = lo;
+			this.hi = hi;
+			this.estimate = estimate(this);
+		}
+
+		public boolean isSplittable() {
+			return estimate > 1 && (lo < hi || (lo == hi && depth + 1 < constraints.length));
+		}
+
+		/**
+		 * Get the prefix identifying the first assignment in this piece.
+		 *
+		 * @return
+		 */
+		public int[] start() {
+			int[] r = Arrays.copyOf(prefix, depth + 1);
+			r[depth] = lo;
+			return r;
+		}
+	}
+
+	/**
+	 * Restricts the variable at a given depth such that the assignment lies within
+	 * a slice. Since slices are contiguous in lexicographic order, the variable is
+	 * only constrained whilst the earlier variables match the corresponding
+	 * boundary exactly.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	static class Slice extends Constraint {
+		private final int depth;
+		private final int[] from;
+		private final int[] to;
+
+		/**
+		 * Construct a slice constraint for a given depth.
+		 *
+		 * @param depth
+		 * @param from  Inclusive lower boundary (or <code>null</code> if unbounded).
+		 * @param to    Exclusive upper boundary (or <code>null</code> if unbounded).
+		 */
+		public Slice(int depth, int[] from, int[] to) {
+			this.depth = depth;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			if (from != null && depth < from.length && matches(from, values)) {
+				return from[depth];
+			}
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			if (to != null && depth < to.length && matches(to, values)) {
+				return depth == to.length - 1 ? to[depth] - 1 : to[depth];
+			}
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public long fingerprint() {
+			long h = CompiledConstraint.mix(11, depth);
+			return CompiledConstraint.mix(CompiledConstraint.mix(h, Arrays.hashCode(from)), Arrays.hashCode(to));
+		}
+
+		private boolean matches(int[] boundary, int[] values) {
+			for (int i = 0; i != depth; ++i) {
+				if (values[i] != boundary[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,411 @@
+package jsmt.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Counts the solutions in subtrees of the search tree for a given set of
+ * constraints. Counts are memoised where the bounds allow it: the count for the
+ * subtree below a given depth depends only on the values of those earlier
+ * variables actually read by the constraints at or beyond that depth. Likewise,
+ * when no later constraint reads a variable, every value in its range leads to
+ * the same count, and hence the range is counted by multiplication rather than
+ * one value at a time. Counts which do not fit into a <code>long</code>
+ * saturate at <code>Long.MAX_VALUE</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class SubtreeCounter {
+	/**
+	 * Maximum number of memoised counts held (across all depths).
+	 */
+	private static final int MAX_ENTRIES = 1 << 20;
+
+	private final Constraint[] constraints;
+	/**
+	 * For each depth, the earlier variables upon which the subtree below that depth
+	 * depends.
+	 */
+	private final int[][] frontier;
+	/**
+	 * For each depth, indicates whether or not any constraint at a later depth reads
+	 * the variable at that depth.
+	 */
+	private final boolean[] independent;
+	/**
+	 * For each depth, indicates whether or not the constraint at that depth may
+	 * not permit every value in its range.
+	 */
+	private final boolean[] sparse;
+	private final ArrayList<HashMap<Key, Long>> memo;
+	private int entries;
+	/**
+	 * The explicit stack of frames used when counting, with one frame per depth.
+	 * Each frame steps through the range of the variable at its depth,
+	 * accumulating the counts of the subtrees below each value.
+	 */
+	private final long[] accumulated;
+	/**
+	 * For each frame, the current value of its variable, or
+	 * <code>Long.MAX_VALUE</code> once its range is exhausted.
+	 */
+	private final long[] current;
+	private final int[] limits;
+	/**
+	 * For each frame, the number of values which the subtree below the current
+	 * value stands for. This is one, except for independent variables, whose
+	 * whole range is counted from the subtree below its first value.
+	 */
+	private final long[] factors;
+	/**
+	 * For each frame, the key under which its count is memoised, or
+	 * <code>null</code> if it should not be.
+	 */
+	private final Key[] keys;
+
+	public SubtreeCounter(Constraint[] constraints) {
+		final int n = constraints.length;
+		this.constraints = constraints;
+		this.frontier = new int[n + 1][];
+		this.independent = new boolean[n];
+		this.sparse = new boolean[n];
+		this.memo = new ArrayList<>(n);
+		this.accumulated = new long[n];
+		this.current = new long[n];
+		this.limits = new int[n];
+		this.factors = new long[n];
+		this.keys = new Key[n];
+		// Compute frontiers working backwards
+		BitSet deps = new BitSet();
+		frontier[n] = new int[0];
+		for (int d = n - 1; d >= 0; --d) {
+			independent[d] = !deps.get(d);
+			sparse[d] = constraints[d].isSparse();
+			constraints[d].dependencies(d, deps);
+			deps.clear(d, n);
+			frontier[d] = deps.stream().toArray();
+		}
+		for (int d = 0; d != n; ++d) {
+			memo.add(new HashMap<>());
+		}
+	}
+
+	/**
+	 * Get the number of variables being counted over.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return constraints.length;
+	}
+
+	/**
+	 * Count the number of solutions in the subtree below a given depth, where
+	 * variables before that depth are fixed by the given values.
+	 *
+	 * @param d
+	 * @param values
+	 * @return
+	 */
+	public long count(int d, int[] values) {
+		long r = open(d, values);
+		return r >= 0 ? r : run(d, values);
+	}
+
+	/**
+	 * Count the number of solutions in the subtree below a given depth, where the
+	 * variable at that depth is between a given lower and upper bound (inclusive).
+	 * The variables before that depth are fixed by the given values. Note that the
+	 * value at the given depth is clobbered.
+	 *
+	 * @param d
+	 * @param lb
+	 * @param ub
+	 * @param values
+	 * @return
+	 */
+	public long count(int d, int lb, int ub, int[] values) {
+		enter(d, lb, ub, null, values);
+		return run(d, values);
+	}
+
+	/**
+	 * Count the subtree below a given depth using the explicit stack, rather than
+	 * recursing once per depth. Hence, this cannot overflow the stack however many
+	 * variables are declared. The frame at the given depth must already have been
+	 * entered.
+	 *
+	 * @param top
+	 * @param values
+	 * @return
+	 */
+	private long run(int top, int[] values) {
+		int d = top;
+		while (true) {
+			if (current[d] != Long.MAX_VALUE) {
+				// Count the subtree below the current value of d
+				long r = open(d + 1, values);
+				if (r < 0) {
+					d = d + 1;
+				} else {
+					accumulate(d, r, values);
+				}
+			} else {
+				// Range of d is exhausted, so return its count to the frame below
+				long r = accumulated[d];
+				if (keys[d] != null && entries < MAX_ENTRIES) {
+					memo.get(d).put(keys[d], r);
+					entries = entries + 1;
+				}
+				keys[d] = null;
+				if (d == top) {
+					return r;
+				}
+				d = d - 1;
+				accumulate(d, r, values);
+			}
+		}
+	}
+
+	/**
+	 * Count the subtree below a given depth, where the variables before that depth
+	 * are fixed by the given values, unless this requires stepping through the
+	 * range of the variable at that depth. In which case, the frame for that depth
+	 * is entered instead.
+	 *
+	 * @param d
+	 * @param values
+	 * @return The count, or <code>-1</code> if the frame at that depth was
+	 *         entered.
+	 */
+	private long open(int d, int[] values) {
+		final int n = constraints.length;
+		if (d == n) {
+			return 1;
+		}
+		int lb = constraints[d].lowerBound(values);
+		int ub = constraints[d].upperBound(values);
+		if (lb > ub) {
+			return 0;
+		} else if (d == n - 1) {
+			return size(d, lb, ub, values);
+		}
+		Key key = new Key(frontier[d], values);
+		Long r = memo.get(d).get(key);
+		if (r != null) {
+			return r;
+		}
+		enter(d, lb, ub, key, values);
+		return -1;
+	}
+
+	/**
+	 * Enter the frame for a given depth, where the variable at that depth is
+	 * between a given lower and upper bound (inclusive).
+	 *
+	 * @param d
+	 * @param lb
+	 * @param ub
+	 * @param key    The key under which to memoise the count (or
+	 *               <code>null</code>).
+	 * @param values
+	 */
+	private void enter(int d, int lb, int ub, Key key, int[] values) {
+		long first = next(d, lb, values);
+		accumulated[d] = 0;
+		limits[d] = ub;
+		keys[d] = key;
+		if (first > ub) {
+			current[d] = Long.MAX_VALUE;
+		} else {
+			values[d] = (int) first;
+			current[d] = first;
+			factors[d] = independent[d] ? size(d, lb, ub, values) : 1;
+		}
+	}
+
+	/**
+	 * Add the count of the subtree below the current value of a given frame, and
+	 * then move that frame onto its next value.
+	 *
+	 * @param d
+	 * @param count
+	 * @param values
+	 */
+	private void accumulate(int d, long count, int[] values) {
+		accumulated[d] = add(accumulated[d], multiply(factors[d], count));
+		long i = independent[d] ? Long.MAX_VALUE : next(d, current[d] + 1, values);
+		if (i > limits[d]) {
+			current[d] = Long.MAX_VALUE;
+		} else {
+			values[d] = (int) i;
+			current[d] = i;
+		}
+	}
+
+	/**
+	 * Determine the number of solutions which come strictly before a given solution
+	 * in lexicographic order.
+	 *
+	 * @param assignment
+	 * @throws IllegalArgumentException if the assignment is not a solution.
+	 * @return
+	 */
+	public long rank(int[] assignment) {
+		final int n = constraints.length;
+		if (assignment.length != n) {
+			throw new IllegalArgumentException("invalid assignment length");
+		}
+		int[] values = Arrays.copyOf(assignment, n);
+		long rank = 0;
+		for (int d = 0; d != n; ++d) {
+			int lb = constraints[d].lowerBound(values);
+			int ub = constraints[d].upperBound(values);
+			int v = assignment[d];
+			if (v < lb || v > ub || next(d, v, values) != v) {
+				throw new IllegalArgumentException("assignment is not a solution");
+			}
+			if (v != lb) {
+				rank = add(rank, count(d, lb, v - 1, values));
+			}
+			values[d] = v;
+		}
+		return rank;
+	}
+
+	/**
+	 * Find the solution with a given rank, filling out the values, lower bounds and
+	 * limits for each variable along the way.
+	 *
+	 * @param k
+	 * @param values
+	 * @param lower
+	 * @param limits
+	 * @return <code>false</code> if there are no more than <code>k</code>
+	 *         solutions.
+	 */
+	public boolean unrank(long k, int[] values, int[] lower, int[] limits) {
+		final int n = constraints.length;
+		if (k < 0) {
+			throw new IllegalArgumentException("invalid rank");
+		}
+		for (int d = 0; d != n; ++d) {
+			int lb = constraints[d].lowerBound(values);
+			int ub = constraints[d].upperBound(values);
+			lower[d] = lb;
+			limits[d] = ub;
+			long i = next(d, lb, values);
+			if (i > ub) {
+				return false;
+			} else if (independent[d] && !sparse[d]) {
+				// Every value has the same subtree, hence jump directly
+				values[d] = lb;
+				long c = count(d + 1, values);
+				if (c == 0 || k / c > (long) ub - lb) {
+					return false;
+				}
+				values[d] = (int) (lb + (k / c));
+				k = k % c;
+			} else {
+				while (true) {
+					values[d] = (int) i;
+					long c = count(d + 1, values);
+					if (k < c) {
+						break;
+					}
+					k = k - c;
+					i = next(d, i + 1, values);
+					if (i > ub) {
+						return false;
+					}
+				}
+			}
+		}
+		return k == 0;
+	}
+
+	/**
+	 * Determine the least value permitted at a given depth which is no less than a
+	 * given value.
+	 *
+	 * @param d
+	 * @param value
+	 * @param values
+	 * @return The least permitted value, or <code>Long.MAX_VALUE</code> if there
+	 *         is none.
+	 */
+	private long next(int d, long value, int[] values) {
+		if (!sparse[d]) {
+			return value;
+		} else if (value > Integer.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		return constraints[d].nextValue(values, (int) value);
+	}
+
+	/**
+	 * Determine the number of values permitted at a given depth between a given
+	 * lower and upper bound (inclusive).
+	 *
+	 * @param d
+	 * @param lb
+	 * @param ub
+	 * @param values
+	 * @return
+	 */
+	private long size(int d, int lb, int ub, int[] values) {
+		if (!sparse[d]) {
+			return (long) ub - lb + 1;
+		}
+		long count = 0;
+		for (long i = next(d, lb, values); i <= ub; i = next(d, i + 1, values)) {
+			count = count + 1;
+		}
+		return count;
+	}
+
+	private static long add(long x, long y) {
+		long r = x + y;
+		return r < 0 ? Long.MAX_VALUE : r;
+	}
+
+	private static long multiply(long x, long y) {
+		if (x != 0 && y > Long.MAX_VALUE / x) {
+			return Long.MAX_VALUE;
+		}
+		return x * y;
+	}
+
+	/**
+	 * The key used for memoising counts, made up from the values of those
+	 * variables upon which a subtree depends.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Key {
+		private final int[] values;
+		private final int hash;
+
+		public Key(int[] variables, int[] values) {
+			this.values = new int[variables.length];
+			for (int i = 0; i != variables.length; ++i) {
+				this.values[i] = values[variables[i]];
+			}
+			this.hash = Arrays.hashCode(this.values);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package jsmt.core;
 
 import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Represents a general polynomial over a given set of variables, such as
@@ -11,6 +12,24 @@ import java.util.Arrays;
  */
 public final class Variable {
     private final Variable.Term[] terms;
+    /**
+     * Index from each variable occurring in this polynomial to the terms in which
+     * it occurs. This is constructed lazily for incremental evaluation, since
+     * eagerly it would cost space proportional to the largest variable for every
+     * intermediate polynomial. It is only ever assigned a fully constructed index,
+     * hence it is volatile so that other threads see the contents as well.
+     */
+    private volatile int[][] index;
+    /**
+     * The flattened form of this polynomial, which is constructed lazily (and
+     * published as for the index).
+     */
+    private volatile int[] code;
+    /**
+     * The previous value of this polynomial on each thread, which is constructed
+     * lazily for cached evaluation (and published as for the index).
+     */
+    private volatile Cache cache;
 
     public Variable(int coefficient,int variable) {
         this.terms = new Variable.Term[]{new Term(coefficient, variable)};
@@ -34,6 +53,365 @@ public final class Variable {
 		return v;
 	}
 
+	/**
+	 * Evaluate this variable incrementally, given its value under a previous
+	 * assignment which differs from the current one only in the value of a single
+	 * variable. Only those terms involving that variable are re-evaluated. The
+	 * result is always the same as evaluating from scratch.
+	 *
+	 * @param result   The value of this variable under the previous assignment.
+	 * @param values   The current assignment.
+	 * @param variable The variable whose value changed.
+	 * @param previous The value of that variable under the previous assignment.
+	 * @return
+	 */
+	public int evaluate(int result, int[] values, int variable, int previous) {
+		int[] touching = index(variable);
+		for (int i = 0; i != touching.length; ++i) {
+			Variable.Term ith = terms[touching[i]];
+			result = result - ith.evaluate(values, variable, previous) + ith.evaluate(values);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluate this variable, reusing its value under the assignment it was last
+	 * evaluated with (on the current thread) where possible. If no variable it
+	 * reads has changed since, the previous value is returned directly. If only a
+	 * single variable has changed, the value is updated incrementally. This is
+	 * used by constraints whose bounds are evaluated at every node of the search,
+	 * where typically only the deepest variable changes between calls. The result
+	 * is always the same as evaluating from scratch.
+	 *
+	 * @param values
+	 * @return
+	 */
+	int evaluateCached(int[] values) {
+		Cache c = cache;
+		if (c == null) {
+			c = new Cache(this);
+			cache = c;
+		}
+		if (c.reads == null) {
+			return evaluate(values);
+		}
+		final int[] reads = c.reads;
+		int[] last = c.last.get();
+		int changed = -1;
+		if (last[0] == 0) {
+			// Nothing evaluated on this thread yet
+			changed = -2;
+		}
+		for (int i = 0; i != reads.length && changed != -2; ++i) {
+			if (values[reads[i]] != last[i + 2]) {
+				changed = changed == -1 ? i : -2;
+			}
+		}
+		if (changed == -1) {
+			return last[1];
+		} else if (changed >= 0) {
+			int previous = last[changed + 2];
+			last[changed + 2] = values[reads[changed]];
+			last[1] = evaluate(last[1], values, reads[changed], previous);
+		} else {
+			for (int i = 0; i != reads.length; ++i) {
+				last[i + 2] = values[reads[i]];
+			}
+			last[0] = 1;
+			last[1] = evaluate(values);
+		}
+		return last[1];
+	}
+
+	/**
+	 * Get the indices of those terms in which a given variable occurs.
+	 *
+	 * @param variable
+	 * @return
+	 */
+	private int[] index(int variable) {
+		int[][] idx = index;
+		if (idx == null) {
+			// Find the largest variable mentioned
+			int max = -1;
+			for (int i = 0; i != terms.length; ++i) {
+				int[] vars = terms[i].variables;
+				if (vars.length > 0) {
+					max = Math.max(max, vars[vars.length - 1]);
+				}
+			}
+			int[] counts = new int[max + 1];
+			for (int i = 0; i != terms.length; ++i) {
+				int[] vars = terms[i].variables;
+				for (int j = 0; j != vars.length; ++j) {
+					// Count each term once, even if the variable is repeated
+					if (j == 0 || vars[j] != vars[j - 1]) {
+						counts[vars[j]]++;
+					}
+				}
+			}
+			idx = new int[max + 1][];
+			for (int v = 0; v <= max; ++v) {
+				idx[v] = counts[v] == 0 ? NONE : new int[counts[v]];
+				counts[v] = 0;
+			}
+			for (int i = 0; i != terms.length; ++i) {
+				int[] vars = terms[i].variables;
+				for (int j = 0; j != vars.length; ++j) {
+					if (j == 0 || vars[j] != vars[j - 1]) {
+						idx[vars[j]][counts[vars[j]]++] = i;
+					}
+				}
+			}
+			index = idx;
+		}
+		return variable < idx.length ? idx[variable] : NONE;
+	}
+
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * Holds the state needed for cached evaluation of a polynomial. Comparing the
+	 * previous assignment against the current one costs about as much as
+	 * evaluating a polynomial with one term per variable. Hence, this is only
+	 * worthwhile when the terms of a polynomial involve many more variables in
+	 * total than it reads (e.g. when it has been expanded from a product).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Cache {
+		/**
+		 * The variables read by the polynomial (in ascending order), or
+		 * <code>null</code> if cached evaluation is not worthwhile.
+		 */
+		private final int[] reads;
+		/**
+		 * For each thread, whether anything was evaluated yet, followed by the
+		 * previous value and then the previous value of each variable read.
+		 */
+		private final ThreadLocal<int[]> last;
+
+		public Cache(Variable variable) {
+			if (isCacheable(variable.flatten())) {
+				BitSet deps = new BitSet();
+				variable.dependencies(deps);
+				int[] reads = deps.stream().toArray();
+				this.reads = reads;
+				this.last = ThreadLocal.withInitial(() -> new int[reads.length + 2]);
+			} else {
+				this.reads = null;
+				this.last = null;
+			}
+		}
+	}
+
+	/**
+	 * Determine whether cached evaluation is worthwhile for a polynomial given in
+	 * its flattened form, that is whether its terms involve many more variables in
+	 * total than it reads.
+	 *
+	 * @param code
+	 * @return
+	 */
+	static boolean isCacheable(int[] code) {
+		BitSet deps = new BitSet();
+		int k = 1;
+		for (int i = code[0]; i > 0; --i) {
+			int n = code[k + 1];
+			for (int j = 0; j != n; ++j) {
+				deps.set(code[k + 2 + j]);
+			}
+			k += 2 + n;
+		}
+		// NOTE: this counts one plus each term and each variable it multiplies
+		return !deps.isEmpty() && code.length - code[0] > 3 * deps.cardinality();
+	}
+
+	/**
+	 * Reconstruct a polynomial from its flattened form (see
+	 * <code>flatten()</code>).
+	 *
+	 * @param code
+	 * @return
+	 */
+	static Variable unflatten(int[] code) {
+		Variable.Term[] terms = new Variable.Term[code[0]];
+		int k = 1;
+		for (int i = 0; i != terms.length; ++i) {
+			int coefficient = code[k];
+			int n = code[k + 1];
+			terms[i] = new Term(coefficient, Arrays.copyOfRange(code, k + 2, k + 2 + n));
+			k += 2 + n;
+		}
+		return new Variable(terms);
+	}
+
+	/**
+	 * Compute the range of values this polynomial can take when each variable
+	 * <code>v</code> ranges over its domain <code>lo[v]</code> upto
+	 * <code>hi[v]</code> (inclusive), using interval arithmetic. The range is
+	 * conservative, in that it may include values which are not actually taken.
+	 * If evaluation could overflow, the full range of <code>int</code> is
+	 * returned.
+	 *
+	 * @param lo
+	 * @param hi
+	 * @return The least and greatest value.
+	 */
+	public int[] bounds(int[] lo, int[] hi) {
+		int[] c = code;
+		if (c == null) {
+			c = flatten();
+			code = c;
+		}
+		return bounds(c, lo, hi);
+	}
+
+	/**
+	 * Compute the range of a polynomial given in its flattened form over a box of
+	 * domains, using interval arithmetic.
+	 *
+	 * @param code
+	 * @param lo
+	 * @param hi
+	 * @return
+	 */
+	static int[] bounds(int[] code, int[] lo, int[] hi) {
+		try {
+			long min = 0;
+			long max = 0;
+			int k = 1;
+			for (int i = code[0]; i > 0; --i) {
+				long tmin = code[k++];
+				long tmax = tmin;
+				int n = code[k++];
+				int end = k + n;
+				while (k < end) {
+					// Variables are sorted, so repeated variables are adjacent
+					int v = code[k];
+					int power = 0;
+					while (k < end && code[k] == v) {
+						power = power + 1;
+						k = k + 1;
+					}
+					long a = power(lo[v], power);
+					long b = power(hi[v], power);
+					long fmin = Math.min(a, b);
+					long fmax = Math.max(a, b);
+					if ((power & 1) == 0 && lo[v] < 0 && hi[v] > 0) {
+						// Even power of domain spanning zero
+						fmin = 0;
+					}
+					long p1 = Math.multiplyExact(tmin, fmin);
+					long p2 = Math.multiplyExact(tmin, fmax);
+					long p3 = Math.multiplyExact(tmax, fmin);
+					long p4 = Math.multiplyExact(tmax, fmax);
+					tmin = Math.min(Math.min(p1, p2), Math.min(p3, p4));
+					tmax = Math.max(Math.max(p1, p2), Math.max(p3, p4));
+				}
+				min = Math.addExact(min, tmin);
+				max = Math.addExact(max, tmax);
+			}
+			if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+				return new int[] { (int) min, (int) max };
+			}
+		} catch (ArithmeticException e) {
+			// Fall through
+		}
+		return new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE };
+	}
+
+	private static long power(long x, int n) {
+		long r = 1;
+		for (int i = 0; i != n; ++i) {
+			r = Math.multiplyExact(r, x);
+		}
+		return r;
+	}
+
+	/**
+	 * Construct an equivalent polynomial where every variable has been moved to a
+	 * new position, as determined by a given mapping from old to new positions.
+	 *
+	 * @param mapping
+	 * @return
+	 */
+	Variable remap(int[] mapping) {
+		Variable.Term[] nterms = new Variable.Term[terms.length];
+		for (int i = 0; i != terms.length; ++i) {
+			int[] vars = terms[i].variables;
+			int[] nvars = new int[vars.length];
+			for (int j = 0; j != vars.length; ++j) {
+				nvars[j] = mapping[vars[j]];
+			}
+			nterms[i] = new Term(terms[i].coefficient, nvars);
+		}
+		Arrays.sort(nterms);
+		return new Variable(nterms);
+	}
+
+	/**
+	 * Get the index of the variable this represents, or <code>-1</code> if this is
+	 * not simply a single variable (as returned from a declaration).
+	 *
+	 * @return
+	 */
+	int variable() {
+		if (terms.length == 1 && terms[0].coefficient == 1 && terms[0].variables.length == 1) {
+			return terms[0].variables[0];
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the variables which this polynomial reads to a given set.
+	 *
+	 * @param deps
+	 */
+	public void dependencies(BitSet deps) {
+		for (int i = 0; i != terms.length; ++i) {
+			int[] vars = terms[i].variables;
+			for (int j = 0; j != vars.length; ++j) {
+				deps.set(vars[j]);
+			}
+		}
+	}
+
+	/**
+	 * Flatten this polynomial into a compact array of integers, which can be
+	 * evaluated without traversing any objects. The format is the number of terms,
+	 * followed by each term in turn given as its coefficient, the number of
+	 * variables it multiplies and then the variables themselves.
+	 *
+	 * @return
+	 */
+	int[] flatten() {
+		int size = 1;
+		for (int i = 0; i != terms.length; ++i) {
+			size += 2 + terms[i].variables.length;
+		}
+		int[] code = new int[size];
+		int k = 0;
+		code[k++] = terms.length;
+		for (int i = 0; i != terms.length; ++i) {
+			Variable.Term ith = terms[i];
+			code[k++] = ith.coefficient;
+			code[k++] = ith.variables.length;
+			for (int j = 0; j != ith.variables.length; ++j) {
+				code[k++] = ith.variables[j];
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Add another polynomial to this one.
+	 *
+	 * @param p
+	 * @throws ArithmeticException if a coefficient of the sum overflows.
+	 * @return
+	 */
     public Variable add(Variable p) {
         // NOTE: could be more efficient!
         for(int i=0;i!=terms.length;++i) {
@@ -42,13 +420,35 @@ public final class Variable {
         return p;
     }
 
+	/**
+	 * Multiply this polynomial by another.
+	 *
+	 * @param p
+	 * @throws ArithmeticException if a coefficient of the product overflows.
+	 * @return
+	 */
+	public Variable multiply(Variable p) {
+		Variable r = null;
+		for (int i = 0; i != terms.length; ++i) {
+			Variable.Term ith = terms[i];
+			for (int j = 0; j != p.terms.length; ++j) {
+				Variable.Term jth = p.terms[j];
+				int[] vars = Arrays.copyOf(ith.variables, ith.variables.length + jth.variables.length);
+				System.arraycopy(jth.variables, 0, vars, ith.variables.length, jth.variables.length);
+				Variable t = new Variable(new Term(Math.multiplyExact(ith.coefficient, jth.coefficient), vars));
+				r = r == null ? t : r.add(t);
+			}
+		}
+		return r;
+	}
+
     private Variable add(Variable.Term t) {
         for (int i = 0; i != terms.length; ++i) {
             Variable.Term ith = terms[i];
             if (Arrays.equals(ith.variables, t.variables)) {
                 // No need to append!
                 Variable.Term[] nterms = Arrays.copyOf(terms, terms.length);
-                nterms[i] = new Term(ith.coefficient + t.coefficient, ith.variables);
+                nterms[i] = new Term(Math.addExact(ith.coefficient, t.coefficient), ith.variables);
                 //
                 return new Variable(nterms);
             }
@@ -101,6 +501,23 @@ public final class Variable {
             return v;
         }
 
+        /**
+         * Evaluate this term as though a given variable had a different value.
+         *
+         * @param values
+         * @param variable
+         * @param value
+         * @return
+         */
+        public int evaluate(int[] values, int variable, int value) {
+            int v = coefficient;
+            for(int i=0;i!=variables.length;++i) {
+                int var = variables[i];
+                v = v * (var == variable ? value : values[var]);
+            }
+            return v;
+        }
+
         @Override
         public int compareTo(Variable.Term o) {
             int c = Arrays.compare(variables,o.variables);
@@ -0,0 +1,130 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+
+import java.util.Arrays;
+
+/**
+ * Compares the time taken to enumerate all permutations of <code>n</code>
+ * values using <code>allDifferent()</code> against two naive encodings: one
+ * with a <code>notEqual()</code> clause for every earlier variable, and one
+ * where every assignment is enumerated and those with repeated values are
+ * filtered out afterwards. Permutations are enumerated both with every
+ * variable ranging over all <code>n</code> values, and with the last half of
+ * the variables restricted to the least half of the values. The latter is
+ * where propagation pays off, since the earlier variables are then excluded
+ * from those values before the search reaches the later ones.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AllDifferentBenchmark {
+	private static final int REPEATS = 5;
+
+	public static void main(String[] args) {
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		System.out.println("n\tk\tsolutions\tallDifferent\tpairwise\tfiltered");
+		for (int n = 4; n <= max; ++n) {
+			run(n, 0);
+		}
+		for (int n = 4; n <= max; ++n) {
+			run(n, n / 2);
+		}
+	}
+
+	private static void run(int n, int k) {
+		System.out.print(n + "\t" + k + "\t" + global(n, k).count());
+		System.out.print("\t" + time(global(n, k)) + "ms");
+		System.out.print("\t" + time(pairwise(n, k)) + "ms");
+		System.out.println("\t" + time(filtered(n, k)) + "ms");
+	}
+
+	/**
+	 * Determine the largest value which a given variable may take, where the last
+	 * <code>k</code> variables are restricted to the least <code>k</code> values.
+	 *
+	 * @param n
+	 * @param k
+	 * @param i
+	 * @return
+	 */
+	private static int limit(int n, int k, int i) {
+		return i < n - k ? n - 1 : k - 1;
+	}
+
+	/**
+	 * Permutations encoded using a single <code>allDifferent()</code> constraint.
+	 *
+	 * @param n
+	 * @param k
+	 * @return
+	 */
+	private static Constraint.Set<int[]> global(int n, int k) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[n];
+		for (int i = 0; i != n; ++i) {
+			vars[i] = cs.declare(between(0, limit(n, k, i)));
+		}
+		cs.require(allDifferent(vars));
+		return cs;
+	}
+
+	/**
+	 * Permutations encoded by requiring each variable to differ from every earlier
+	 * variable.
+	 *
+	 * @param n
+	 * @param k
+	 * @return
+	 */
+	private static Constraint.Set<int[]> pairwise(int n, int k) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[n];
+		for (int i = 0; i != n; ++i) {
+			Constraint[] clauses = new Constraint[i + 1];
+			clauses[0] = between(0, limit(n, k, i));
+			for (int j = 0; j != i; ++j) {
+				clauses[j + 1] = notEqual(vars[j]);
+			}
+			vars[i] = cs.declare(and(clauses));
+		}
+		return cs;
+	}
+
+	/**
+	 * Every assignment, from which permutations must be filtered out.
+	 *
+	 * @param n
+	 * @param k
+	 * @return
+	 */
+	private static Constraint.Set<int[]> filtered(int n, int k) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		for (int i = 0; i != n; ++i) {
+			cs.declare(between(0, limit(n, k, i)));
+		}
+		return cs;
+	}
+
+	/**
+	 * Determine the best time (in milliseconds) taken to enumerate the
+	 * permutations from a given constraint set.
+	 *
+	 * @param cs
+	 * @return
+	 */
+	private static long time(Constraint.Set<int[]> cs) {
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r != REPEATS; ++r) {
+			long start = System.nanoTime();
+			long count = 0;
+			for (int[] s : cs) {
+				if (Arrays.stream(s).distinct().count() == s.length) {
+					count = count + 1;
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1000000;
+	}
+}
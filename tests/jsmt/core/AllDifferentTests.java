@@ -0,0 +1,135 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the <code>allDifferent()</code> forward constraint, whose Hall
+ * interval propagation must never remove a value taken in some solution.
+ * Hence, the solutions found must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AllDifferentTests {
+
+	@Test
+	public void testPermutations() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[5];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = cs.declare(between(0, 4));
+		}
+		cs.require(allDifferent(vars));
+		List<int[]> expected = BruteForce.solutions(5, 0, 4, AllDifferentTests::distinct);
+		assertEquals(120, expected.size());
+		BruteForce.assertSameAsBruteForce(cs, expected);
+	}
+
+	@Test
+	public void testHallInterval() {
+		// The last two variables use up both of the values 0 and 1
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		Variable z = cs.declare(between(0, 1));
+		Variable w = cs.declare(between(0, 1));
+		cs.require(allDifferent(x, y, z, w));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[4], new int[] { 3, 3, 1, 1 },
+				AllDifferentTests::distinct));
+	}
+
+	@Test
+	public void testSubset() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-1, 2));
+		cs.declare(between(-1, 2));
+		Variable z = cs.declare(between(-1, 2));
+		Variable w = cs.declare(and(between(-1, 2), greaterOrEqual(x)));
+		// Declared out of order, and leaving the second variable free
+		cs.require(allDifferent(w, x, z));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(4, -1, 2,
+				vs -> vs[3] >= vs[0] && vs[0] != vs[2] && vs[0] != vs[3] && vs[2] != vs[3]));
+	}
+
+	@Test
+	public void testPigeonhole() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[3];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = cs.declare(between(0, 1));
+		}
+		cs.require(allDifferent(vars));
+		assertFalse(cs.iterator().hasNext());
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testInvalid() {
+		Variable x = new Variable(1, 0);
+		assertThrows(IllegalArgumentException.class, () -> allDifferent(x, x));
+		assertThrows(IllegalArgumentException.class, () -> allDifferent(x, x.add(x)));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(21);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 5;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable[] vars = new Variable[n];
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(4);
+				hi[v] = lo[v] + random.nextInt(4);
+				vars[v] = cs.declare(between(lo[v], hi[v]));
+			}
+			// Choose a random scope of at least two variables
+			boolean[] scope = new boolean[n];
+			scope[random.nextInt(n - 1)] = true;
+			scope[n - 1] = true;
+			int size = 0;
+			for (int v = 0; v != n; ++v) {
+				scope[v] |= random.nextBoolean();
+				size += scope[v] ? 1 : 0;
+			}
+			Variable[] group = new Variable[size];
+			for (int v = 0, i = 0; v != n; ++v) {
+				if (scope[v]) {
+					group[i++] = vars[v];
+				}
+			}
+			cs.require(allDifferent(group));
+			List<int[]> expected = BruteForce.solutions(lo, hi, vs -> {
+				for (int u = 0; u != n; ++u) {
+					for (int v = u + 1; v != n; ++v) {
+						if (scope[u] && scope[v] && vs[u] == vs[v]) {
+							return false;
+						}
+					}
+				}
+				return true;
+			});
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+		}
+	}
+
+	private static boolean distinct(int[] values) {
+		for (int i = 0; i != values.length; ++i) {
+			for (int j = i + 1; j != values.length; ++j) {
+				if (values[i] == values[j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,51 @@
+package jsmt.core;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A user-defined constraint bounding a variable above by the first variable,
+ * which records how often its bounds are computed. It either declares that it
+ * reads only the first variable, or leaves the default (that it reads every
+ * earlier variable) in place.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class AtMostFirst extends Constraint {
+	private final boolean declared;
+	private final AtomicInteger calls = new AtomicInteger();
+
+	public AtMostFirst(boolean declared) {
+		this.declared = declared;
+	}
+
+	/**
+	 * Get the number of times the bounds of this constraint were computed.
+	 *
+	 * @return
+	 */
+	public int calls() {
+		return calls.get();
+	}
+
+	@Override
+	public int lowerBound(int[] values) {
+		calls.incrementAndGet();
+		return Integer.MIN_VALUE;
+	}
+
+	@Override
+	public int upperBound(int[] values) {
+		return values[0];
+	}
+
+	@Override
+	public void dependencies(int variable, BitSet deps) {
+		if (declared) {
+			deps.set(0);
+		} else {
+			super.dependencies(variable, deps);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for backjumping, which must never skip over a solution. The problems
+ * here have deep variables whose ranges are often empty because of some much
+ * earlier variable, so that the search backjumps over those in between.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BackjumpTests {
+
+	@Test
+	public void testIrrelevantVariables() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		cs.declare(between(0, 3));
+		cs.declare(between(0, 3));
+		// Empty whenever x > 3, regardless of the variables in between
+		cs.declare(and(between(0, 10), greaterOrEqual(new Variable(2, 0)), lessOrEqual(x.add(BruteForce.constant(3)))));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { 0, 0, 0, 0 }, new int[] { 5, 3, 3, 10 },
+				vs -> vs[3] >= 2 * vs[0] && vs[3] <= vs[0] + 3));
+	}
+
+	@Test
+	public void testConflictsCarriedBack() {
+		// The innermost variable fails because of x and y, whilst z fails because of
+		// x alone. Hence, conflicts must be accumulated as the search jumps back.
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 4));
+		Variable y = cs.declare(between(0, 4));
+		cs.declare(between(0, 2));
+		Variable z = cs.declare(and(between(0, 4), lessOrEqual(BruteForce.constant(4).add(new Variable(-1, 0)))));
+		cs.declare(between(0, 1));
+		cs.declare(and(between(0, 6), greaterOrEqual(x.add(y)), lessOrEqual(z.add(BruteForce.constant(2)))));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[6], new int[] { 4, 4, 2, 4, 1, 6 },
+				vs -> vs[3] <= 4 - vs[0] && vs[5] >= vs[0] + vs[1] && vs[5] <= vs[3] + 2));
+	}
+
+	@Test
+	public void testUserDefinedDependencies() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), notEqual(y)));
+		cs.declare(and(between(1, 3), new AtMostFirst(false), greaterOrEqual(x)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { 0, 0, 0, 1 }, new int[] { 3, 3, 3, 3 },
+				vs -> vs[2] != vs[1] && vs[3] <= vs[0] && vs[3] >= vs[0]));
+	}
+}
@@ -0,0 +1,45 @@
+package jsmt.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for delivering the solutions of a constraint set in flat batches.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BatchTests {
+
+	@Test
+	public void testForEachBatch() {
+		for (int size : new int[] { 1, 7, 1000 }) {
+			List<int[]> found = new ArrayList<>();
+			List<Integer> counts = new ArrayList<>();
+			BruteForce.problem().forEachBatch(size, (block, count) -> {
+				assertEquals(size * 4, block.length);
+				counts.add(count);
+				for (int i = 0; i != count; ++i) {
+					int[] row = new int[4];
+					System.arraycopy(block, i * 4, row, 0, 4);
+					found.add(row);
+				}
+			});
+			assertEquals(BruteForce.toString(BruteForce.expected()), BruteForce.toString(found));
+			// Every batch except the last is full
+			for (int i = 0; i < counts.size() - 1; ++i) {
+				assertEquals(size, (int) counts.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidBatchSize() {
+		assertThrows(IllegalArgumentException.class, () -> BruteForce.problem().forEachBatch(0, (block, count) -> {
+		}));
+	}
+}
@@ -0,0 +1,92 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for avoiding needless evaluation of bounds, namely caching the bounds
+ * of each variable until a dependency changes and evaluating polynomials
+ * incrementally. Neither may change the solutions found.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BoundCacheTests {
+
+	@Test
+	public void testBoundsReused() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 4));
+		cs.declare(between(0, 9));
+		AtMostFirst c = new AtMostFirst(true);
+		cs.declare(and(between(0, 4), c));
+		List<int[]> expected = BruteForce.solutions(new int[3], new int[] { 4, 9, 4 }, vs -> vs[2] <= vs[0]);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		// Recomputed only when the first variable changes, not for every value of the second
+		assertEquals(5, c.calls());
+	}
+
+	@Test
+	public void testIncrementalEvaluation() {
+		Variable x = new Variable(1, 0);
+		Variable y = new Variable(1, 1);
+		Variable z = new Variable(1, 2);
+		Variable p = x.multiply(x).multiply(y).add(new Variable(3, 1).multiply(z)).add(x.multiply(z));
+		Random random = new Random(1);
+		int[] values = new int[3];
+		int result = p.evaluate(values);
+		for (int i = 0; i != 1000; ++i) {
+			int v = random.nextInt(3);
+			int previous = values[v];
+			values[v] = random.nextInt(21) - 10;
+			result = p.evaluate(result, values, v, previous);
+			assertEquals(p.evaluate(values), result);
+		}
+	}
+
+	@Test
+	public void testCachedEvaluation() {
+		Variable x = new Variable(1, 0);
+		Variable y = new Variable(1, 1);
+		Variable z = new Variable(1, 2);
+		Variable sum = x.add(y).add(z);
+		Variable square = sum.multiply(sum);
+		assertTrue(Variable.isCacheable(square.flatten()));
+		assertFalse(Variable.isCacheable(sum.flatten()));
+		Random random = new Random(2);
+		int[] values = new int[3];
+		for (int i = 0; i != 1000; ++i) {
+			// Change none, one or several variables at a time
+			int changes = random.nextInt(3);
+			for (int j = 0; j != changes; ++j) {
+				values[random.nextInt(3)] = random.nextInt(21) - 10;
+			}
+			assertEquals(square.evaluate(values), square.evaluateCached(values));
+			assertEquals(sum.evaluate(values), sum.evaluateCached(values));
+		}
+	}
+
+	@Test
+	public void testCachedBounds() {
+		// Bounds expanded from a product, hence evaluated with caching
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-3, 3));
+		Variable y = cs.declare(between(-3, 3));
+		Variable z = cs.declare(between(-3, 3));
+		Variable sum = x.add(y).add(z);
+		cs.declare(and(between(0, 30), greaterOrEqual(sum.multiply(sum)), lessOrEqual(new Variable(3, 0).add(y))));
+		List<int[]> expected = BruteForce.solutions(new int[] { -3, -3, -3, 0 }, new int[] { 3, 3, 3, 30 }, vs -> {
+			int s = vs[0] + vs[1] + vs[2];
+			return vs[3] >= s * s && vs[3] <= 3 * vs[0] + vs[1];
+		});
+		assertFalse(expected.isEmpty());
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.compile().iterator())));
+		assertEquals(expected.size(), cs.parallelCount().intValue());
+	}
+}
@@ -0,0 +1,170 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Provides the reference against which the search is tested, namely by
+ * enumerating every assignment within a fixed box of domains and filtering
+ * out those which do not satisfy a given predicate.
+ *
+ * @author David J. Pearce
+ *
+ */
+final class BruteForce {
+
+	/**
+	 * A small problem shared by tests which only need some constraint set with a
+	 * reasonable number of solutions, including a variable which no other reads.
+	 *
+	 * @return
+	 */
+	static Constraint.Set<int[]> problem() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 6));
+		Variable y = cs.declare(and(between(0, 6), greaterOrEqual(x)));
+		cs.declare(between(0, 2));
+		cs.declare(and(between(0, 12), lessOrEqual(x.add(y)), notEqual(y)));
+		return cs;
+	}
+
+	/**
+	 * The solutions of <code>problem()</code>, in lexicographic order.
+	 *
+	 * @return
+	 */
+	static List<int[]> expected() {
+		return solutions(new int[] { 0, 0, 0, 0 }, new int[] { 6, 6, 2, 12 },
+				vs -> vs[1] >= vs[0] && vs[3] <= vs[0] + vs[1] && vs[3] != vs[1]);
+	}
+
+	/**
+	 * Enumerate (in lexicographic order) every assignment where each variable
+	 * <code>v</code> lies between <code>lo[v]</code> and <code>hi[v]</code>
+	 * (inclusive), and which satisfies a given predicate.
+	 *
+	 * @param lo
+	 * @param hi
+	 * @param predicate
+	 * @return
+	 */
+	static List<int[]> solutions(int[] lo, int[] hi, Predicate<int[]> predicate) {
+		final int n = lo.length;
+		ArrayList<int[]> r = new ArrayList<>();
+		int[] values = lo.clone();
+		for (int v = 0; v != n; ++v) {
+			if (lo[v] > hi[v]) {
+				return r;
+			}
+		}
+		while (true) {
+			if (predicate.test(values)) {
+				r.add(values.clone());
+			}
+			int d = n - 1;
+			while (d >= 0 && values[d] == hi[d]) {
+				values[d] = lo[d];
+				d = d - 1;
+			}
+			if (d < 0) {
+				return r;
+			}
+			values[d] = values[d] + 1;
+		}
+	}
+
+	/**
+	 * Enumerate every assignment where each variable lies within the same domain,
+	 * and which satisfies a given predicate.
+	 *
+	 * @param n
+	 * @param lo
+	 * @param hi
+	 * @param predicate
+	 * @return
+	 */
+	static List<int[]> solutions(int n, int lo, int hi, Predicate<int[]> predicate) {
+		int[] los = new int[n];
+		int[] his = new int[n];
+		Arrays.fill(los, lo);
+		Arrays.fill(his, hi);
+		return solutions(los, his, predicate);
+	}
+
+	/**
+	 * Drain an iterator of assignments into a list.
+	 *
+	 * @param iterator
+	 * @return
+	 */
+	static List<int[]> toList(Iterator<int[]> iterator) {
+		ArrayList<int[]> r = new ArrayList<>();
+		while (iterator.hasNext()) {
+			r.add(iterator.next());
+		}
+		return r;
+	}
+
+	/**
+	 * Sort a list of assignments into lexicographic order.
+	 *
+	 * @param items
+	 * @return
+	 */
+	static List<int[]> sorted(List<int[]> items) {
+		ArrayList<int[]> r = new ArrayList<>(items);
+		r.sort(Arrays::compare);
+		return r;
+	}
+
+	/**
+	 * Render a list of assignments such that two lists can be compared with a
+	 * readable failure message.
+	 *
+	 * @param items
+	 * @return
+	 */
+	static String toString(List<int[]> items) {
+		StringBuilder r = new StringBuilder();
+		for (int[] item : items) {
+			r.append(Arrays.toString(item)).append('\n');
+		}
+		return r.toString();
+	}
+
+	/**
+	 * Check that a constraint set enumerates exactly the given (non-empty) list of
+	 * solutions in order, both before and after compilation, and that counting
+	 * and ranking agree with it.
+	 *
+	 * @param cs
+	 * @param expected
+	 */
+	static void assertSameAsBruteForce(Constraint.Set<int[]> cs, List<int[]> expected) {
+		assertFalse(expected.isEmpty());
+		assertEquals(toString(expected), toString(toList(cs.iterator())));
+		assertEquals(toString(expected), toString(toList(cs.compile().iterator())));
+		assertEquals(expected.size(), cs.count());
+		assertEquals(BigInteger.valueOf(expected.size()), cs.parallelCount());
+		for (int k = 0; k != expected.size(); ++k) {
+			assertEquals(k, cs.rank(expected.get(k)));
+		}
+	}
+
+	/**
+	 * Construct a polynomial with a constant value.
+	 *
+	 * @param value
+	 * @return
+	 */
+	static Variable constant(int value) {
+		return new Variable(new Variable.Term(value));
+	}
+}
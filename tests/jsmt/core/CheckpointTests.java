@@ -0,0 +1,188 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for checkpointing an iterator and resuming from the checkpoint, which
+ * must continue with exactly the remaining solutions found by brute force, and
+ * for rejecting checkpoints taken from a different constraint set.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CheckpointTests {
+
+	private static Constraint.Set<int[]> problem(int factor) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 6));
+		Variable y = cs.declare(and(between(0, 12), multipleOf(factor), notEqual(x)));
+		cs.declare(and(between(-3, 3), lessOrEqual(y.add(BruteForce.constant(-4)))));
+		return cs;
+	}
+
+	private static List<int[]> expected(int factor) {
+		return BruteForce.solutions(new int[] { 0, 0, -3 }, new int[] { 6, 12, 3 },
+				vs -> vs[1] % factor == 0 && vs[1] != vs[0] && vs[2] <= vs[1] - 4);
+	}
+
+	@Test
+	public void testResume() {
+		List<int[]> expected = expected(3);
+		for (int k = 0; k <= expected.size(); k += 5) {
+			Constraint.ResumableIterator<int[]> it = problem(3).iterator();
+			for (int i = 0; i != k; ++i) {
+				it.next();
+			}
+			Constraint.Checkpoint checkpoint = it.checkpoint();
+			assertEquals(k == expected.size(), checkpoint.isExhausted());
+			List<int[]> tail = expected.subList(k, expected.size());
+			assertEquals(BruteForce.toString(tail), BruteForce.toString(BruteForce.toList(problem(3).resume(checkpoint))));
+			// Taking a checkpoint must not disturb the original iterator
+			assertEquals(BruteForce.toString(tail), BruteForce.toString(BruteForce.toList(it)));
+		}
+	}
+
+	@Test
+	public void testReadWrite() throws IOException {
+		List<int[]> expected = expected(3);
+		Constraint.ResumableIterator<int[]> it = problem(3).iterator();
+		for (int i = 0; i != 7; ++i) {
+			it.next();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		it.checkpoint().write(out);
+		Constraint.Checkpoint checkpoint = Constraint.Checkpoint.read(new ByteArrayInputStream(out.toByteArray()));
+		List<int[]> tail = expected.subList(7, expected.size());
+		assertEquals(BruteForce.toString(tail), BruteForce.toString(BruteForce.toList(problem(3).resume(checkpoint))));
+	}
+
+	@Test
+	public void testCheckpointedIterator() throws IOException {
+		List<int[]> expected = expected(3);
+		Path file = Files.createTempDirectory("jsmt").resolve("checkpoint");
+		Constraint.ResumableIterator<int[]> it = problem(3).checkpointedIterator(file, 0);
+		for (int i = 0; i != 4; ++i) {
+			it.next();
+		}
+		it.checkpoint().save(file);
+		List<int[]> tail = expected.subList(4, expected.size());
+		assertEquals(BruteForce.toString(tail),
+				BruteForce.toString(BruteForce.toList(problem(3).checkpointedIterator(file, 0))));
+		// The final checkpoint records that the iterator was exhausted
+		assertTrue(Constraint.Checkpoint.load(file).isExhausted());
+		assertFalse(problem(3).checkpointedIterator(file, 0).hasNext());
+	}
+
+	@Test
+	public void testCheckpointInterval() throws IOException {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		for (int i = 0; i != 3; ++i) {
+			cs.declare(between(0, 20));
+		}
+		Path file = Files.createTempDirectory("jsmt").resolve("checkpoint");
+		assertThrows(IllegalArgumentException.class, () -> cs.checkpointedIterator(file, -1));
+		// An interval too long to express in nanoseconds never elapses
+		Constraint.ResumableIterator<int[]> it = cs.checkpointedIterator(file, Long.MAX_VALUE);
+		for (int i = 0; i != 9000; ++i) {
+			it.next();
+		}
+		assertFalse(Files.exists(file));
+		assertEquals(261, BruteForce.toList(it).size());
+		assertTrue(Constraint.Checkpoint.load(file).isExhausted());
+	}
+
+	@Test
+	public void testDifferentParameters() {
+		// Sets differing only in the parameters of uncompilable constraints
+		assertRejected(f -> problem(f), 3, 5);
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(between(0, 9));
+			cs.declare(and(between(0, 9), notEqual(x.add(BruteForce.constant(f)))));
+			return cs;
+		}, 1, 2);
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			cs.declare(oneOf(1, f, 9));
+			return cs;
+		}, 3, 4);
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(between(-5, 5));
+			cs.declare(solve(x.multiply(new Variable(1, 1)), BruteForce.constant(f)));
+			return cs;
+		}, 4, 6);
+	}
+
+	@Test
+	public void testDifferentPropagators() {
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(between(0, 9));
+			Variable y = cs.declare(between(0, 9));
+			cs.require(Constraints.lessOrEqual(x.add(y), f));
+			return cs;
+		}, 7, 8);
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(between(0, 3));
+			Variable y = cs.declare(between(0, 3));
+			cs.require(table(new Variable[] { x, y }, new int[][] { { 0, 1 }, { 1, f } }));
+			return cs;
+		}, 2, 3);
+	}
+
+	@Test
+	public void testDifferentSymmetries() {
+		assertRejected(f -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable[] vs = new Variable[3];
+			for (int i = 0; i != vs.length; ++i) {
+				vs[i] = cs.declare(between(0, 4));
+			}
+			cs.symmetric(vs[0], vs[f]);
+			return cs;
+		}, 1, 2);
+	}
+
+	@Test
+	public void testDifferentWidth() throws IOException {
+		Constraint.Set<int[]> wider = problem(3);
+		wider.declare(between(0, 1));
+		Constraint.Checkpoint checkpoint = problem(3).iterator().checkpoint();
+		assertThrows(IllegalArgumentException.class, () -> wider.resume(checkpoint));
+		// A checkpoint read back from a stream is checked in the same way
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		wider.iterator().checkpoint().write(out);
+		Constraint.Checkpoint read = Constraint.Checkpoint.read(new ByteArrayInputStream(out.toByteArray()));
+		assertThrows(IllegalArgumentException.class, () -> problem(3).resume(read));
+	}
+
+	@Test
+	public void testCompiledEquivalent() {
+		// Compiling does not change the solutions, hence checkpoints remain valid
+		List<int[]> expected = expected(3);
+		Constraint.ResumableIterator<int[]> it = problem(3).iterator();
+		it.next();
+		List<int[]> tail = expected.subList(1, expected.size());
+		assertEquals(BruteForce.toString(tail),
+				BruteForce.toString(BruteForce.toList(problem(3).compile().resume(it.checkpoint()))));
+	}
+
+	private static void assertRejected(IntFunction<Constraint.Set<int[]>> set, int a, int b) {
+		Constraint.Checkpoint checkpoint = set.apply(a).iterator().checkpoint();
+		set.apply(a).resume(checkpoint);
+		assertThrows(IllegalArgumentException.class, () -> set.apply(b).resume(checkpoint));
+	}
+}
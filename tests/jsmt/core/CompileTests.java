@@ -0,0 +1,91 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for compiling a constraint set, which must not change its solutions.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CompileTests {
+
+	/**
+	 * A user-defined constraint, which cannot be compiled and must be retained as
+	 * a residual.
+	 */
+	private static final class AtMostDouble extends Constraint {
+		private final int variable;
+
+		public AtMostDouble(int variable) {
+			this.variable = variable;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return 2 * values[variable];
+		}
+	}
+
+	private static Constraint.Set<int[]> problem() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-4, 4));
+		Variable y = cs.declare(and(between(-4, 4), and(greaterThan(x), lessOrEqual(new Variable(1, 0).add(x)))));
+		Variable xy = x.multiply(y);
+		cs.declare(and(between(-16, 16), greaterOrEqual(xy), new AtMostDouble(1)));
+		cs.declare(and(equal(xy.add(y)), between(-100, 100)));
+		return cs;
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[] { -4, -4, -16, -100 }, new int[] { 4, 4, 16, 100 },
+				vs -> vs[1] > vs[0] && vs[1] <= 2 * vs[0] && vs[2] >= vs[0] * vs[1] && vs[2] <= 2 * vs[1]
+						&& vs[3] == vs[0] * vs[1] + vs[1]);
+	}
+
+	@Test
+	public void testSameSolutions() {
+		Constraint.Set<int[]> cs = problem();
+		assertFalse(expected().isEmpty());
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		Constraint.Set<int[]> compiled = cs.compile();
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(BruteForce.toList(compiled.iterator())));
+	}
+
+	@Test
+	public void testCompileTime() {
+		Constraint.Set<int[]> cs = problem();
+		assertEquals(0, cs.getCompileTime());
+		assertTrue(cs.compile().getCompileTime() > 0);
+	}
+
+	@Test
+	public void testCompiledBoundsMatch() {
+		Constraint c = and(between(0, 10), greaterOrEqual(new Variable(3, 0)), lessThan(new Variable(1, 1)));
+		Constraint compiled = CompiledConstraint.compile(c);
+		assertTrue(compiled instanceof CompiledConstraint);
+		for (int a = -5; a <= 5; ++a) {
+			for (int b = -5; b <= 5; ++b) {
+				int[] values = { a, b };
+				assertEquals(c.lowerBound(values), compiled.lowerBound(values));
+				assertEquals(c.upperBound(values), compiled.upperBound(values));
+			}
+		}
+	}
+
+	@Test
+	public void testUserDefinedNotCompiled() {
+		Constraint c = new AtMostDouble(0);
+		assertSame(c, CompiledConstraint.compile(c));
+	}
+}
@@ -0,0 +1,73 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for decomposing a constraint set into independent components, which
+ * are counted by multiplication and enumerated as a Cartesian product. Both
+ * must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ComponentTests {
+
+	@Test
+	public void testConsecutiveComponents() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 4));
+		cs.declare(and(between(0, 4), greaterThan(x)));
+		Variable z = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 6), notEqual(z), multipleOf(2)));
+		cs.declare(between(1, 2));
+		assertArrayEquals(new int[][] { { 0, 1 }, { 2, 3 }, { 4 } }, cs.components());
+		List<int[]> expected = BruteForce.solutions(new int[] { 0, 0, 0, 0, 1 }, new int[] { 4, 4, 3, 6, 2 },
+				vs -> vs[1] > vs[0] && vs[3] != vs[2] && vs[3] % 2 == 0);
+		assertEquals(expected.size(), cs.count());
+		assertEquals(BigInteger.valueOf(expected.size()), cs.bigCount());
+		// Consecutive components are produced in the same order as iterator()
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.productIterator())));
+	}
+
+	@Test
+	public void testInterleavedComponents() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 6), greaterOrEqual(x)));
+		cs.declare(and(between(0, 6), lessOrEqual(y.add(y))));
+		assertArrayEquals(new int[][] { { 0, 2 }, { 1, 3 } }, cs.components());
+		List<int[]> expected = BruteForce.solutions(new int[4], new int[] { 3, 3, 6, 6 },
+				vs -> vs[2] >= vs[0] && vs[3] <= 2 * vs[1]);
+		assertEquals(expected.size(), cs.count());
+		assertEquals(BruteForce.toString(expected),
+				BruteForce.toString(BruteForce.sorted(BruteForce.toList(cs.productIterator()))));
+	}
+
+	@Test
+	public void testEmptyComponent() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 1000));
+		Variable y = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), greaterThan(y.add(y).add(new Variable(new Variable.Term(3))))));
+		assertEquals(2, cs.components().length);
+		assertEquals(0, cs.count());
+		assertFalse(cs.productIterator().hasNext());
+	}
+
+	@Test
+	public void testSingleComponent() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), lessOrEqual(x)));
+		assertEquals(1, cs.components().length);
+		List<int[]> expected = BruteForce.solutions(2, 0, 3, vs -> vs[1] <= vs[0]);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.productIterator())));
+	}
+}
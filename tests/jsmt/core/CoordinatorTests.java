@@ -0,0 +1,139 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for distributing the enumeration of a constraint set across several
+ * local workers, which together must find exactly the solutions found by brute
+ * force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CoordinatorTests {
+	private static final int WORKERS = 4;
+
+	/**
+	 * A sparse problem, where most of the search tree contains no solutions.
+	 * Hence, workers must respond to steal requests whilst searching rather than
+	 * only as solutions are found.
+	 */
+	public static final class Problem implements Supplier<Constraint.Set<?>> {
+		@Override
+		public Constraint.Set<?> get() {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable sum = null;
+			for (int i = 0; i != 5; ++i) {
+				Variable v = cs.declare(between(0, 9));
+				sum = sum == null ? v : sum.add(v);
+			}
+			cs.declare(and(between(0, 0), equal(sum.add(new Variable(new Variable.Term(-40))))));
+			return cs;
+		}
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[6], new int[] { 9, 9, 9, 9, 9, 0 },
+				vs -> vs[0] + vs[1] + vs[2] + vs[3] + vs[4] == 40);
+	}
+
+	@Test
+	public void testCount() throws Exception {
+		Constraint.Set<?> set = new Problem().get();
+		Coordinator coordinator = new Coordinator(0);
+		try {
+			List<Throwable> failures = startWorkers(coordinator.getPort());
+			assertEquals(BigInteger.valueOf(expected().size()), coordinator.count(set, WORKERS));
+			assertTrue(failures.isEmpty(), failures.toString());
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	@Test
+	public void testSolutions() throws Exception {
+		Constraint.Set<?> set = new Problem().get();
+		Coordinator coordinator = new Coordinator(0);
+		try {
+			List<Throwable> failures = startWorkers(coordinator.getPort());
+			List<int[]> found = Collections.synchronizedList(new ArrayList<>());
+			BigInteger total = coordinator.run(set, WORKERS, found::add);
+			assertEquals(BigInteger.valueOf(expected().size()), total);
+			assertEquals(BruteForce.toString(expected()), BruteForce.toString(BruteForce.sorted(found)));
+			assertTrue(failures.isEmpty(), failures.toString());
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	@Test
+	public void testInvalidWorkers() throws Exception {
+		Coordinator coordinator = new Coordinator(0);
+		try {
+			assertThrows(IllegalArgumentException.class, () -> coordinator.count(new Problem().get(), 0));
+			assertThrows(IllegalArgumentException.class, () -> coordinator.run(new Problem().get(), -1, vs -> {
+			}));
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	@Test
+	public void testDifferentSet() throws Exception {
+		Coordinator coordinator = new Coordinator(0);
+		try {
+			Constraint.Set<int[]> other = new Constraint.Set<>(int[]::clone);
+			other.declare(between(0, 9));
+			Thread worker = new Thread(() -> {
+				try {
+					other.work("localhost", coordinator.getPort());
+				} catch (IOException e) {
+					// expected, since the coordinator rejects this worker
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+			assertThrows(IOException.class, () -> coordinator.count(new Problem().get(), 1));
+		} finally {
+			coordinator.close();
+		}
+	}
+
+	/**
+	 * Start a number of workers in this process, each connecting to a coordinator
+	 * on a given port. One is started through the command-line entry point.
+	 *
+	 * @param port
+	 * @return Any failures encountered by the workers.
+	 */
+	private static List<Throwable> startWorkers(int port) {
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		for (int i = 0; i != WORKERS; ++i) {
+			final boolean main = i == 0;
+			Thread worker = new Thread(() -> {
+				try {
+					if (main) {
+						Coordinator.main(new String[] { "localhost", Integer.toString(port), Problem.class.getName() });
+					} else {
+						new Problem().get().work("localhost", port);
+					}
+				} catch (Exception e) {
+					failures.add(e);
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+		}
+		return failures;
+	}
+}
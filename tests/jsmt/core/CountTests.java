@@ -0,0 +1,68 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for counting the solutions of a constraint set, which must agree with
+ * brute force and never apply the projection.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CountTests {
+
+	private static Constraint.Set<int[]> problem() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(vs -> {
+			throw new AssertionError("projection applied");
+		});
+		Variable x = cs.declare(between(0, 9));
+		Variable y = cs.declare(and(between(0, 9), lessOrEqual(x)));
+		cs.declare(and(between(-5, 20), greaterOrEqual(x.add(y))));
+		return cs;
+	}
+
+	@Test
+	public void testCount() {
+		int expected = BruteForce.solutions(new int[] { 0, 0, -5 }, new int[] { 9, 9, 20 },
+				vs -> vs[1] <= vs[0] && vs[2] >= vs[0] + vs[1]).size();
+		assertEquals(expected, problem().count());
+		assertEquals(BigInteger.valueOf(expected), problem().bigCount());
+		assertEquals(BigInteger.valueOf(expected), problem().parallelCount());
+	}
+
+	@Test
+	public void testSparseInnermost() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 20));
+		cs.declare(and(between(0, 40), multipleOf(3), notEqual(x)));
+		int expected = BruteForce.solutions(new int[] { 0, 0 }, new int[] { 20, 40 },
+				vs -> vs[1] % 3 == 0 && vs[1] != vs[0]).size();
+		assertEquals(expected, cs.count());
+		assertEquals(BigInteger.valueOf(expected), cs.parallelCount());
+	}
+
+	@Test
+	public void testEmpty() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		cs.declare(greaterThan(x.add(new Variable(10, 0))));
+		cs.declare(between(3, 2));
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testOverflow() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		for (int i = 0; i != 3; ++i) {
+			cs.declare(between(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		}
+		BigInteger expected = BigInteger.ONE.shiftLeft(96);
+		assertEquals(expected, cs.bigCount());
+		assertThrows(ArithmeticException.class, () -> cs.count());
+	}
+}
@@ -0,0 +1,55 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for cursors over the raw solutions of a constraint set, which must
+ * visit exactly the solutions found by brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CursorTests {
+
+	@Test
+	public void testCursor() {
+		Constraint.Cursor cursor = BruteForce.problem().cursor();
+		assertEquals(4, cursor.size());
+		assertEquals(-1, cursor.changedFrom());
+		List<int[]> found = new ArrayList<>();
+		int[] previous = null;
+		while (cursor.advance()) {
+			int[] current = new int[cursor.size()];
+			for (int i = 0; i != current.length; ++i) {
+				current[i] = cursor.get(i);
+			}
+			int changed = cursor.changedFrom();
+			if (previous == null) {
+				assertEquals(0, changed);
+			} else {
+				// Nothing below changedFrom() may differ
+				for (int i = 0; i < changed; ++i) {
+					assertEquals(previous[i], current[i]);
+				}
+			}
+			found.add(current);
+			previous = current;
+		}
+		assertEquals(-1, cursor.changedFrom());
+		assertFalse(cursor.advance());
+		assertEquals(BruteForce.toString(BruteForce.expected()), BruteForce.toString(found));
+	}
+
+	@Test
+	public void testEmptyCursor() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(1, 0));
+		assertFalse(cs.cursor().advance());
+	}
+}
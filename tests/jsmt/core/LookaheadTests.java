@@ -0,0 +1,165 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the interval look-ahead, which prunes a prefix as soon as some
+ * later multivariate bound cannot be satisfied. The intervals computed must
+ * contain every value a polynomial takes, and pruning must never lose a
+ * solution.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class LookaheadTests {
+
+	/**
+	 * A user-defined constraint which places no bounds on its variable, and
+	 * records how often its lower bound is computed.
+	 */
+	private static final class Counting extends Constraint {
+		private int calls;
+
+		@Override
+		public int lowerBound(int[] values) {
+			calls = calls + 1;
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	@Test
+	public void testBoundsContainValues() {
+		Random random = new Random(18);
+		for (int trial = 0; trial != 500; ++trial) {
+			final int n = 3;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(9) - 4;
+				hi[v] = lo[v] + random.nextInt(4);
+			}
+			Variable p = randomPolynomial(random, n);
+			int[] bounds = p.bounds(lo, hi);
+			for (int[] vs : BruteForce.solutions(lo, hi, vs -> true)) {
+				int value = p.evaluate(vs);
+				assertTrue(bounds[0] <= value && value <= bounds[1], p + " = " + value + " outside " + bounds[0]
+						+ ".." + bounds[1]);
+			}
+		}
+	}
+
+	@Test
+	public void testLinearBoundsExact() {
+		Random random = new Random(19);
+		for (int trial = 0; trial != 500; ++trial) {
+			final int n = 3;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			Variable p = new Variable(new Variable.Term(random.nextInt(11) - 5));
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(9) - 4;
+				hi[v] = lo[v] + random.nextInt(4);
+				p = p.add(new Variable(random.nextInt(7) - 3, v));
+			}
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for (int[] vs : BruteForce.solutions(lo, hi, vs -> true)) {
+				min = Math.min(min, p.evaluate(vs));
+				max = Math.max(max, p.evaluate(vs));
+			}
+			assertArrayEquals(new int[] { min, max }, p.bounds(lo, hi), p.toString());
+		}
+	}
+
+	@Test
+	public void testOverflow() {
+		Variable x = new Variable(1, 0);
+		int[] bounds = x.multiply(x).bounds(new int[] { 0 }, new int[] { Integer.MAX_VALUE });
+		assertArrayEquals(new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE }, bounds);
+	}
+
+	@Test
+	public void testPrunesPrefix() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 9));
+		Counting counting = new Counting();
+		Variable y = cs.declare(and(between(0, 9), counting));
+		cs.declare(and(between(0, 5), equal(x.add(y).add(new Variable(new Variable.Term(-15))))));
+		List<int[]> expected = BruteForce.solutions(new int[3], new int[] { 9, 9, 5 },
+				vs -> vs[2] == vs[0] + vs[1] - 15);
+		BruteForce.assertSameAsBruteForce(cs, expected);
+		counting.calls = 0;
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		// The second variable is never entered when the first is below six
+		assertEquals(4, counting.calls);
+	}
+
+	@Test
+	public void testRandomMultivariate() {
+		Random random = new Random(20);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 3;
+			int[] lo = new int[n + 1];
+			int[] hi = new int[n + 1];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(7) - 3;
+				hi[v] = lo[v] + random.nextInt(4);
+				cs.declare(between(lo[v], hi[v]));
+			}
+			lo[n] = random.nextInt(7) - 3;
+			hi[n] = lo[n] + random.nextInt(6);
+			Variable p = randomPolynomial(random, n);
+			Variable q = randomPolynomial(random, n);
+			int kind = random.nextInt(3);
+			Constraint c;
+			if (kind == 0) {
+				c = equal(p);
+			} else if (kind == 1) {
+				c = and(greaterOrEqual(p), lessOrEqual(q));
+			} else {
+				c = and(greaterThan(p), lessOrEqual(q));
+			}
+			cs.declare(and(between(lo[n], hi[n]), c));
+			List<int[]> expected = BruteForce.solutions(lo, hi, vs -> {
+				int a = p.evaluate(vs);
+				int b = q.evaluate(vs);
+				return kind == 0 ? vs[n] == a : kind == 1 ? vs[n] >= a && vs[n] <= b : vs[n] > a && vs[n] <= b;
+			});
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+		}
+	}
+
+	/**
+	 * Construct a random polynomial over a given number of variables, with terms
+	 * of degree upto three.
+	 *
+	 * @param random
+	 * @param n
+	 * @return
+	 */
+	private static Variable randomPolynomial(Random random, int n) {
+		Variable p = new Variable(new Variable.Term(random.nextInt(7) - 3));
+		for (int i = random.nextInt(4); i >= 0; --i) {
+			Variable term = new Variable(random.nextInt(7) - 3, random.nextInt(n));
+			for (int j = random.nextInt(3); j > 0; --j) {
+				term = term.multiply(new Variable(1, random.nextInt(n)));
+			}
+			p = p.add(term);
+		}
+		return p;
+	}
+}
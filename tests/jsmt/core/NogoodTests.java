@@ -0,0 +1,114 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for caching nogoods during the search, which must not change the
+ * solutions found but should skip subtrees already known to contain none.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class NogoodTests {
+
+	/**
+	 * A user-defined constraint bounding a variable above by the sum of two
+	 * earlier variables plus an offset. Since this cannot be compiled, the
+	 * look-ahead cannot anticipate its failures, which are left to the search.
+	 */
+	private static final class AtMostSum extends Constraint {
+		private final int first;
+		private final int second;
+		private final int offset;
+
+		public AtMostSum(int first, int second, int offset) {
+			this.first = first;
+			this.second = second;
+			this.offset = offset;
+		}
+
+		@Override
+		public int lowerBound(int[] values) {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return values[first] + values[second] + offset;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			deps.set(first);
+			deps.set(second);
+		}
+	}
+
+	/**
+	 * Construct a problem where the subtree rooted at the third variable depends
+	 * only upon the second, and contains no solutions when that is zero. This
+	 * subtree recurs for every value of the first variable.
+	 *
+	 * @return
+	 */
+	private static Constraint.Set<int[]> problem() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 5));
+		cs.declare(between(0, 3));
+		cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), new AtMostSum(1, 2, -4)));
+		return cs;
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[4], new int[] { 5, 3, 3, 3 }, vs -> vs[3] <= vs[1] + vs[2] - 4);
+	}
+
+	@Test
+	public void testSameSolutions() {
+		Constraint.Set<int[]> cs = problem();
+		NogoodCache cache = cs.nogoods(100);
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		// The failing subtree is recorded once, then skipped for every other x
+		assertTrue(cache.size() > 0);
+		assertTrue(cache.getHits() >= 5, cache.toString());
+		assertEquals(expected().size(), cs.count());
+		assertEquals(BigInteger.valueOf(expected().size()), cs.parallelCount());
+		List<int[]> expected = expected();
+		for (int k = 0; k != expected.size(); ++k) {
+			assertEquals(k, cs.rank(expected.get(k)));
+		}
+	}
+
+	@Test
+	public void testCapacity() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 9));
+		cs.declare(between(0, 9));
+		cs.declare(between(0, 9));
+		// Fails for most values of the first two variables, giving many nogoods
+		cs.declare(and(between(0, 9), new AtMostSum(0, 2, -9)));
+		cs.declare(and(between(0, 9), new AtMostSum(1, 3, -9)));
+		NogoodCache cache = cs.nogoods(2);
+		List<int[]> expected = BruteForce.solutions(new int[5], new int[] { 9, 9, 9, 9, 9 },
+				vs -> vs[3] <= vs[0] + vs[2] - 9 && vs[4] <= vs[1] + vs[3] - 9);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertTrue(cache.size() <= 2);
+		assertTrue(cache.getEvictions() > 0, cache.toString());
+		assertEquals(2, cache.getCapacity());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidCapacity() {
+		assertThrows(IllegalArgumentException.class, () -> new NogoodCache(0));
+	}
+}
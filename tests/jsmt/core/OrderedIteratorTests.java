@@ -0,0 +1,89 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the order-preserving parallel iterator, which must produce exactly
+ * the same sequence as the sequential iterator, and must not leave workers
+ * behind when abandoned early.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class OrderedIteratorTests {
+
+	private static Constraint.Set<int[]> problem(int n) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, n));
+		Variable y = cs.declare(and(between(0, n), lessOrEqual(x)));
+		cs.declare(and(between(0, 2 * n), greaterOrEqual(x.add(y))));
+		return cs;
+	}
+
+	@Test
+	public void testSameOrderAsSequential() {
+		List<int[]> expected = BruteForce.solutions(new int[] { 0, 0, 0 }, new int[] { 30, 30, 60 },
+				vs -> vs[1] <= vs[0] && vs[2] >= vs[0] + vs[1]);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(problem(30).iterator())));
+		try (Constraint.CloseableIterator<int[]> it = problem(30).parallelIterator(4, 2)) {
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(it)));
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 3));
+		cs.declare(between(1, 0));
+		assertFalse(cs.parallelIterator(2, 1).hasNext());
+	}
+
+	@Test
+	public void testCloseStopsWorkers() throws InterruptedException {
+		Constraint.CloseableIterator<int[]> it = problem(2000).parallelIterator(4, 1);
+		for (int i = 0; i != 10; ++i) {
+			assertTrue(it.hasNext());
+			it.next();
+		}
+		it.close();
+		assertFalse(it.hasNext());
+		awaitNoWorkers();
+	}
+
+	@Test
+	public void testAbandonedStopsWorkers() throws InterruptedException {
+		abandon();
+		for (int i = 0; i != 50 && workers() != 0; ++i) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		assertEquals(0, workers());
+	}
+
+	private static void abandon() {
+		Constraint.CloseableIterator<int[]> it = problem(2000).parallelIterator(4, 1);
+		it.next();
+	}
+
+	private static void awaitNoWorkers() throws InterruptedException {
+		for (int i = 0; i != 50 && workers() != 0; ++i) {
+			Thread.sleep(100);
+		}
+		assertEquals(0, workers());
+	}
+
+	private static int workers() {
+		int count = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.isAlive() && t.getName().equals("jsmt-ordered-worker")) {
+				count = count + 1;
+			}
+		}
+		return count;
+	}
+}
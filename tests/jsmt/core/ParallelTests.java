@@ -0,0 +1,104 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the work-stealing parallel enumeration of a constraint set, which
+ * must find exactly the same solutions as a brute-force enumeration.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelTests {
+
+	/**
+	 * A skewed search tree, where the range of <code>y</code> shrinks as
+	 * <code>x</code> grows, and <code>z = x + y</code>.
+	 *
+	 * @return
+	 */
+	private static Constraint.Set<int[]> skewed() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 20));
+		Variable y = cs.declare(and(between(0, 20), greaterOrEqual(x)));
+		cs.declare(and(between(0, 30), equal(x.add(y))));
+		cs.declare(between(-2, 2));
+		return cs;
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[] { 0, 0, 0, -2 }, new int[] { 20, 20, 30, 2 },
+				vs -> vs[1] >= vs[0] && vs[2] == vs[0] + vs[1]);
+	}
+
+	@Test
+	public void testParallelForEach() {
+		List<int[]> found = Collections.synchronizedList(new ArrayList<>());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			skewed().parallelForEach(pool, found::add);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(BruteForce.sorted(found)));
+	}
+
+	@Test
+	public void testParallelCount() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(BigInteger.valueOf(expected().size()), skewed().parallelCount(pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelStreamPreservesOrder() {
+		Spliterator<int[]> s = skewed().spliterator();
+		List<int[]> found = StreamSupport.stream(s, true).collect(Collectors.toList());
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(found));
+	}
+
+	@Test
+	public void testSplitDisjoint() {
+		// Split repeatedly, such that parts cover the whole tree exactly once
+		List<Spliterator<int[]>> parts = new ArrayList<>();
+		parts.add(skewed().spliterator());
+		for (int i = 0; i != 16; ++i) {
+			Spliterator<int[]> split = parts.get(parts.size() - 1).trySplit();
+			if (split != null) {
+				parts.add(parts.size() - 1, split);
+			}
+		}
+		assertTrue(parts.size() > 1);
+		List<int[]> found = new ArrayList<>();
+		for (Spliterator<int[]> p : parts) {
+			p.forEachRemaining(found::add);
+		}
+		assertEquals(BruteForce.toString(expected()), BruteForce.toString(found));
+	}
+
+	@Test
+	public void testEmpty() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 3));
+		cs.declare(between(5, 4));
+		List<int[]> found = Collections.synchronizedList(new ArrayList<>());
+		cs.parallelForEach(found::add);
+		assertTrue(found.isEmpty());
+		assertEquals(BigInteger.ZERO, cs.parallelCount());
+	}
+}
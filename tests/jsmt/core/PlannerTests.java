@@ -0,0 +1,226 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for planning the order in which variables are searched. A planned set
+ * must find the same solutions as brute force, and every assignment or
+ * variable passed into or out of it must use the declared layout.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PlannerTests {
+
+	/**
+	 * Construct a problem where the first variable depends upon one declared
+	 * after it, hence the second variable must be searched first.
+	 *
+	 * @return
+	 */
+	private static Constraint.Set<int[]> problem() {
+		Planner<int[]> planner = new Planner<>(int[]::clone);
+		Variable x = planner.declare();
+		Variable y = planner.declare(between(0, 3));
+		planner.declare(and(between(0, 5), notEqual(x)));
+		planner.constrain(x, and(between(0, 7), greaterOrEqual(y.add(y))));
+		return planner.plan();
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[3], new int[] { 7, 3, 5 }, vs -> vs[0] >= 2 * vs[1] && vs[2] != vs[0]);
+	}
+
+	@Test
+	public void testOrder() {
+		Planner<int[]> planner = new Planner<>(int[]::clone);
+		Variable x = planner.declare();
+		Variable y = planner.declare(between(0, 3));
+		planner.constrain(x, and(between(0, 7), greaterOrEqual(y)));
+		assertArrayEquals(new int[] { 1, 0 }, planner.order());
+	}
+
+	@Test
+	public void testSameSolutions() {
+		Constraint.Set<int[]> cs = problem();
+		assertEquals(BruteForce.toString(expected()),
+				BruteForce.toString(BruteForce.sorted(BruteForce.toList(cs.iterator()))));
+		assertEquals(expected().size(), cs.count());
+		assertEquals(expected().size(), cs.compile().count());
+	}
+
+	@Test
+	public void testCursor() {
+		Constraint.Set<int[]> cs = problem();
+		Constraint.Cursor cursor = cs.cursor();
+		List<int[]> found = new ArrayList<>();
+		int[] previous = null;
+		while (cursor.advance()) {
+			int[] row = new int[cursor.size()];
+			for (int v = 0; v != row.length; ++v) {
+				row[v] = cursor.get(v);
+			}
+			// Nothing before the reported variable may have changed
+			for (int v = 0; previous != null && v < cursor.changedFrom(); ++v) {
+				assertEquals(previous[v], row[v]);
+			}
+			found.add(row);
+			previous = row;
+		}
+		assertEquals(BruteForce.toString(BruteForce.toList(cs.iterator())), BruteForce.toString(found));
+	}
+
+	@Test
+	public void testForEachBatch() {
+		Constraint.Set<int[]> cs = problem();
+		List<int[]> found = new ArrayList<>();
+		cs.forEachBatch(5, (block, count) -> {
+			for (int i = 0; i != count; ++i) {
+				found.add(Arrays.copyOfRange(block, i * 3, (i + 1) * 3));
+			}
+		});
+		assertEquals(BruteForce.toString(BruteForce.toList(cs.iterator())), BruteForce.toString(found));
+	}
+
+	@Test
+	public void testRank() {
+		Constraint.Set<int[]> cs = problem();
+		List<int[]> solutions = BruteForce.toList(cs.iterator());
+		for (int k = 0; k != solutions.size(); ++k) {
+			assertEquals(k, cs.rank(solutions.get(k)));
+			assertArrayEquals(solutions.get(k), cs.iteratorFrom(k).next());
+		}
+		assertThrows(IllegalArgumentException.class, () -> cs.rank(new int[] { 0, 1, 0 }));
+	}
+
+	@Test
+	public void testTopK() {
+		Constraint.Set<int[]> cs = problem();
+		// Objective over the first and last declared variables
+		Variable objective = new Variable(1, 0).add(new Variable(-1, 2));
+		List<int[]> expected = new ArrayList<>(BruteForce.toList(cs.iterator()));
+		expected.sort(Comparator.comparingInt((int[] vs) -> vs[0] - vs[2]).reversed());
+		expected = expected.subList(0, 7);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.topK(objective, 7)));
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.parallelTopK(objective, 7)));
+	}
+
+	@Test
+	public void testComponents() {
+		Planner<int[]> planner = new Planner<>(int[]::clone);
+		Variable x = planner.declare();
+		Variable y = planner.declare(between(0, 3));
+		planner.declare(between(0, 2));
+		planner.constrain(x, and(between(0, 7), greaterOrEqual(y)));
+		assertArrayEquals(new int[][] { { 0, 1 }, { 2 } }, planner.plan().components());
+	}
+
+	@Test
+	public void testSymmetric() {
+		Planner<int[]> planner = new Planner<>(int[]::clone);
+		Variable x = planner.declare();
+		Variable y = planner.declare(between(0, 2));
+		Variable z = planner.declare(and(between(0, 3), greaterOrEqual(y)));
+		planner.constrain(x, and(between(0, 3), greaterOrEqual(y)));
+		Constraint.Set<int[]> cs = planner.plan();
+		cs.symmetric(x, z);
+		List<int[]> all = BruteForce.solutions(new int[3], new int[] { 3, 2, 3 },
+				vs -> vs[0] >= vs[1] && vs[2] >= vs[1]);
+		assertEquals(all.size(), cs.bigOrbitCount().intValue());
+		long total = 0;
+		for (int[] s : BruteForce.toList(cs.iterator())) {
+			total += cs.orbit(s);
+		}
+		assertEquals(all.size(), total);
+		assertEquals(2, cs.orbit(new int[] { 2, 0, 3 }));
+		assertThrows(IllegalArgumentException.class, () -> cs.symmetric(y, z));
+	}
+
+	@Test
+	public void testCarriedAcrossPlan() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		Variable z = cs.declare(and(between(0, 3), lessOrEqual(x.add(y))));
+		cs.symmetric(x, y);
+		cs.nogoods(16);
+		Constraint.Set<int[]> planned = cs.plan();
+		List<int[]> all = BruteForce.solutions(3, 0, 3, vs -> vs[2] <= vs[0] + vs[1]);
+		assertEquals(cs.count(), planned.count());
+		assertEquals(all.size(), planned.bigOrbitCount().intValue());
+		assertEquals(16, planned.getNogoods().getCapacity());
+		// Planning twice composes the layouts
+		Constraint.Set<int[]> replanned = planned.plan();
+		assertEquals(BruteForce.toString(BruteForce.sorted(BruteForce.toList(cs.iterator()))),
+				BruteForce.toString(BruteForce.sorted(BruteForce.toList(replanned.iterator()))));
+		assertEquals(all.size(), replanned.bigOrbitCount().intValue());
+		assertEquals(2, replanned.orbit(new int[] { 1, 2, 0 }));
+		assertNotNull(z);
+	}
+
+	@Test
+	public void testExtendRejected() {
+		Constraint.Set<int[]> cs = problem();
+		assertThrows(IllegalStateException.class, () -> cs.declare(between(0, 1)));
+		assertThrows(IllegalStateException.class, () -> cs.nextVariable());
+	}
+
+	@Test
+	public void testUnbounded() {
+		Planner<int[]> planner = new Planner<>(int[]::clone);
+		Variable x = planner.declare();
+		Variable y = planner.declare(between(0, 3));
+		planner.constrain(x, greaterOrEqual(y));
+		Constraint.Set<int[]> cs = planner.plan().presolve();
+		assertTrue(cs.getUnbounded().get(0));
+		assertFalse(cs.getUnbounded().get(1));
+	}
+
+	@Test
+	public void testLargeChain() {
+		final int n = 20000;
+		int[] order = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			// Each variable depends upon the one declared after it
+			Planner<int[]> planner = new Planner<>(int[]::clone);
+			Variable[] vars = new Variable[n];
+			for (int i = 0; i != n; ++i) {
+				vars[i] = planner.declare();
+			}
+			planner.constrain(vars[n - 1], between(0, 1));
+			for (int i = 0; i != n - 1; ++i) {
+				planner.constrain(vars[i], and(between(0, 1), greaterOrEqual(vars[i + 1])));
+			}
+			return planner.order();
+		});
+		for (int p = 0; p != n; ++p) {
+			assertEquals(n - 1 - p, order[p]);
+		}
+	}
+
+	@Test
+	public void testLargeSetPlan() {
+		final int n = 20000;
+		Constraint.Set<int[]> planned = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable previous = cs.declare(between(0, 1));
+			for (int i = 1; i != n; ++i) {
+				previous = cs.declare(and(between(0, 1), greaterOrEqual(previous)));
+			}
+			return cs.plan();
+		});
+		int[] first = planned.iterator().next();
+		assertEquals(n, first.length);
+		for (int v = 0; v != n; ++v) {
+			assertEquals(0, first[v]);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for presolving, which infers a static domain for every variable. The
+ * presolved set must find exactly the same solutions, in the same order, and
+ * the inferred domains must contain every value taken in some solution.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PresolveTests {
+
+	@Test
+	public void testDomainsFromBounds() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		// No explicit range, only bounds relative to x
+		cs.declare(and(greaterOrEqual(x), lessOrEqual(x.add(BruteForce.constant(3)))));
+		Constraint.Set<int[]> presolved = cs.presolve();
+		assertEquals(new BitSet(), presolved.getUnbounded());
+		List<int[]> expected = BruteForce.solutions(new int[] { 0, 0 }, new int[] { 5, 8 },
+				vs -> vs[1] >= vs[0] && vs[1] <= vs[0] + 3);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertSameSolutions(presolved, expected);
+	}
+
+	@Test
+	public void testDomainsFromPropagators() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(greaterOrEqual(BruteForce.constant(0)));
+		Variable y = cs.declare(greaterOrEqual(BruteForce.constant(1)));
+		cs.require(lessOrEqual(x.add(y), 4));
+		Constraint.Set<int[]> presolved = cs.presolve();
+		assertEquals(new BitSet(), presolved.getUnbounded());
+		// NOTE: without presolving, the first variable would range over every int
+		assertSameSolutions(presolved,
+				BruteForce.solutions(new int[] { 0, 1 }, new int[] { 3, 4 }, vs -> vs[0] + vs[1] <= 4));
+	}
+
+	@Test
+	public void testUnbounded() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		cs.declare(greaterOrEqual(x));
+		cs.declare(between(-1, 1));
+		assertNull(cs.getUnbounded());
+		BitSet expected = new BitSet();
+		expected.set(1);
+		assertEquals(expected, cs.presolve().getUnbounded());
+	}
+
+	@Test
+	public void testInfeasible() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		Variable y = cs.declare(and(between(0, 5), greaterOrEqual(x)));
+		cs.require(greaterOrEqual(x.add(y), 11));
+		Constraint.Set<int[]> presolved = cs.presolve();
+		assertFalse(presolved.iterator().hasNext());
+		assertEquals(0, presolved.count());
+		assertEquals(new BitSet(), presolved.getUnbounded());
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(19);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 4;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			int[] a = new int[n];
+			int[] b = new int[n];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(7) - 3;
+				hi[v] = lo[v] + random.nextInt(5);
+				Constraint c = between(lo[v], hi[v]);
+				if (v > 0) {
+					// Bound below by an earlier variable plus a constant
+					a[v] = random.nextInt(v);
+					b[v] = random.nextInt(5) - 2;
+					c = and(c, greaterOrEqual(new Variable(1, a[v]).add(BruteForce.constant(b[v]))));
+				}
+				cs.declare(c);
+			}
+			final int rhs = random.nextInt(9);
+			cs.require(lessOrEqual(new Variable(1, 0).add(new Variable(1, n - 1)), rhs));
+			List<int[]> expected = BruteForce.solutions(lo, hi, vs -> {
+				for (int v = 1; v != n; ++v) {
+					if (vs[v] < vs[a[v]] + b[v]) {
+						return false;
+					}
+				}
+				return vs[0] + vs[n - 1] <= rhs;
+			});
+			Constraint[] array = cs.toArray();
+			Presolve presolve = new Presolve(array, new Propagator[] {
+					lessOrEqual(new Variable(1, 0).add(new Variable(1, n - 1)), rhs) });
+			assertTrue(presolve.isFeasible() || expected.isEmpty(), "trial " + trial);
+			if (presolve.isFeasible()) {
+				int[][] domains = presolve.domains();
+				for (int[] vs : expected) {
+					for (int v = 0; v != n; ++v) {
+						assertTrue(domains[0][v] <= vs[v] && vs[v] <= domains[1][v], "trial " + trial);
+					}
+				}
+			}
+			Constraint.Set<int[]> presolved = cs.presolve();
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(presolved.iterator())),
+					"trial " + trial);
+			assertEquals(expected.size(), presolved.count(), "trial " + trial);
+		}
+	}
+
+	private static void assertSameSolutions(Constraint.Set<int[]> presolved, List<int[]> expected) {
+		assertFalse(expected.isEmpty());
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(presolved.iterator())));
+		assertEquals(expected.size(), presolved.count());
+		for (int k = 0; k != expected.size(); ++k) {
+			assertEquals(k, presolved.rank(expected.get(k)));
+		}
+	}
+}
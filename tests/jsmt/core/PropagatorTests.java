@@ -0,0 +1,118 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for forward constraints, which may refer to variables declared later
+ * and are enforced by bounds propagation. Pruning must never lose a solution,
+ * hence the solutions found must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PropagatorTests {
+
+	@Test
+	public void testSumEqualsConstant() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 9));
+		Variable y = cs.declare(between(0, 9));
+		Variable z = cs.declare(between(0, 9));
+		cs.require(equal(x.add(y).add(z), 24));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(3, 0, 9, vs -> vs[0] + vs[1] + vs[2] == 24));
+	}
+
+	@Test
+	public void testLaterVariable() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		Variable y = cs.declare(between(-2, 3));
+		Variable z = cs.declare(between(0, 4));
+		// Constrains x by variables declared after it
+		cs.require(lessThan(x, y.add(z)));
+		cs.require(lessOrEqual(z, x));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { 0, -2, 0 }, new int[] { 5, 3, 4 },
+				vs -> vs[0] < vs[1] + vs[2] && vs[2] <= vs[0]));
+	}
+
+	@Test
+	public void testNegativeCoefficients() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-4, 4));
+		Variable y = cs.declare(between(-4, 4));
+		cs.require(equal(new Variable(2, 0).add(new Variable(-3, 1)), new Variable(new Variable.Term(1))));
+		cs.require(greaterOrEqual(x.add(y), -2));
+		BruteForce.assertSameAsBruteForce(cs,
+				BruteForce.solutions(2, -4, 4, vs -> 2 * vs[0] - 3 * vs[1] == 1 && vs[0] + vs[1] >= -2));
+	}
+
+	@Test
+	public void testInfeasible() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		cs.require(greaterOrEqual(x.add(y), 7));
+		assertFalse(cs.iterator().hasNext());
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testNonLinear() {
+		Variable x = new Variable(1, 0);
+		Variable y = new Variable(1, 1);
+		assertThrows(IllegalArgumentException.class, () -> lessOrEqual(x.multiply(y), 3));
+	}
+
+	@Test
+	public void testRandomLinear() {
+		Random random = new Random(17);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 4;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(7) - 3;
+				hi[v] = lo[v] + random.nextInt(5);
+				cs.declare(between(lo[v], hi[v]));
+			}
+			Predicate<int[]> predicate = vs -> true;
+			for (int i = 1 + random.nextInt(2); i > 0; --i) {
+				int[] coefficients = new int[n];
+				Variable lhs = null;
+				for (int v = 0; v != n; ++v) {
+					coefficients[v] = random.nextInt(7) - 3;
+					if (coefficients[v] != 0) {
+						Variable term = new Variable(coefficients[v], v);
+						lhs = lhs == null ? term : lhs.add(term);
+					}
+				}
+				if (lhs == null) {
+					continue;
+				}
+				final int rhs = random.nextInt(11) - 5;
+				final int kind = random.nextInt(3);
+				Predicate<int[]> p = vs -> {
+					int sum = 0;
+					for (int v = 0; v != n; ++v) {
+						sum += coefficients[v] * vs[v];
+					}
+					return kind == 0 ? sum <= rhs : kind == 1 ? sum >= rhs : sum == rhs;
+				};
+				cs.require(kind == 0 ? lessOrEqual(lhs, rhs) : kind == 1 ? greaterOrEqual(lhs, rhs) : equal(lhs, rhs));
+				predicate = predicate.and(p);
+			}
+			List<int[]> expected = BruteForce.solutions(lo, hi, predicate);
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for ranking solutions and jumping directly to the solution with a
+ * given rank, which must agree with the position of each solution in a
+ * brute-force enumeration.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class RankTests {
+
+	private static Constraint.Set<int[]> problem() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		Variable y = cs.declare(and(between(-2, 4), notEqual(x)));
+		// Independent of y, hence counted by multiplication
+		cs.declare(and(between(0, 8), greaterOrEqual(x), multipleOf(2)));
+		cs.declare(and(between(-3, 3), lessOrEqual(y)));
+		return cs;
+	}
+
+	private static List<int[]> expected() {
+		return BruteForce.solutions(new int[] { 0, -2, 0, -3 }, new int[] { 5, 4, 8, 3 },
+				vs -> vs[1] != vs[0] && vs[2] >= vs[0] && vs[2] % 2 == 0 && vs[3] <= vs[1]);
+	}
+
+	@Test
+	public void testRank() {
+		Constraint.Set<int[]> cs = problem();
+		List<int[]> expected = expected();
+		for (int k = 0; k != expected.size(); ++k) {
+			assertEquals(k, cs.rank(expected.get(k)));
+		}
+	}
+
+	@Test
+	public void testIteratorFrom() {
+		Constraint.Set<int[]> cs = problem();
+		List<int[]> expected = expected();
+		for (int k = 0; k <= expected.size(); k += 7) {
+			List<int[]> tail = expected.subList(k, expected.size());
+			assertEquals(BruteForce.toString(tail), BruteForce.toString(BruteForce.toList(cs.iteratorFrom(k))));
+		}
+		assertFalse(cs.iteratorFrom(expected.size()).hasNext());
+		assertFalse(cs.iteratorFrom(expected.size() + 100).hasNext());
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Constraint.Set<int[]> cs = problem();
+		int size = expected().size();
+		for (int k = 0; k != size; ++k) {
+			assertEquals(k, cs.rank(cs.iteratorFrom(k).next()));
+		}
+	}
+
+	@Test
+	public void testNotASolution() {
+		Constraint.Set<int[]> cs = problem();
+		assertThrows(IllegalArgumentException.class, () -> cs.rank(new int[] { 1, 1, 2, 0 }));
+		assertThrows(IllegalArgumentException.class, () -> cs.rank(new int[] { 1, 2 }));
+	}
+
+	@Test
+	public void testDeepChain() {
+		// Solutions are zeros followed by ones, ranked by decreasing number of zeros
+		final int n = 20000;
+		Constraint.Set<int[]> cs = SearchTests.chain(n);
+		Iterator<int[]> it = cs.iteratorFrom(n - 5000);
+		int[] first = it.next();
+		int[] expected = new int[n];
+		Arrays.fill(expected, 5000, n, 1);
+		assertArrayEquals(expected, first);
+		assertEquals(n - 5000, cs.rank(first));
+		int remaining = 0;
+		while (it.hasNext()) {
+			it.next();
+			remaining = remaining + 1;
+		}
+		assertEquals(5000, remaining);
+	}
+}
@@ -0,0 +1,87 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the explicit-stack search engine, which must enumerate exactly the
+ * solutions found by brute force (in lexicographic order) and must not
+ * overflow the stack however many variables are declared.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SearchTests {
+
+	@Test
+	public void testReadmeExample() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		Variable y = cs.declare(between(0, 5));
+		cs.declare(and(between(0, 5), equal(x.add(y))));
+		List<int[]> expected = BruteForce.solutions(3, 0, 5, vs -> vs[2] == vs[0] + vs[1]);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+	}
+
+	@Test
+	public void testEmptyInnerRanges() {
+		// Many prefixes have no completion, which exercises backtracking
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-3, 3));
+		Variable y = cs.declare(and(between(-3, 3), greaterThan(x)));
+		Variable z = cs.declare(and(greaterThan(y), lessOrEqual(new Variable(2, 0))));
+		cs.declare(and(between(0, 1), lessThan(z)));
+		List<int[]> expected = BruteForce.solutions(new int[] { -3, -3, -10, 0 }, new int[] { 3, 3, 10, 1 },
+				vs -> vs[1] > vs[0] && vs[2] > vs[1] && vs[2] <= 2 * vs[0] && vs[3] < vs[2] + 1);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())));
+	}
+
+	@Test
+	public void testNoVariables() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Iterator<int[]> it = cs.iterator();
+		assertTrue(it.hasNext());
+		assertEquals(0, it.next().length);
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testDeepChain() {
+		// Each variable is at least the previous, giving n+1 solutions
+		final int n = 20000;
+		Constraint.Set<int[]> cs = chain(n);
+		Iterator<int[]> it = cs.iterator();
+		int count = 0;
+		int[] last = null;
+		while (it.hasNext()) {
+			last = it.next();
+			count = count + 1;
+		}
+		assertEquals(n + 1, count);
+		int[] ones = new int[n];
+		Arrays.fill(ones, 1);
+		assertArrayEquals(ones, last);
+	}
+
+	/**
+	 * Construct a chain of <code>n</code> variables, each either zero or one and
+	 * no less than the previous.
+	 *
+	 * @param n
+	 * @return
+	 */
+	static Constraint.Set<int[]> chain(int n) {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable prev = cs.declare(between(0, 1));
+		for (int i = 1; i != n; ++i) {
+			prev = cs.declare(and(between(0, 1), greaterOrEqual(prev)));
+		}
+		return cs;
+	}
+}
@@ -0,0 +1,50 @@
+package jsmt.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for dividing a constraint set into slices, which taken in order must
+ * enumerate exactly the solutions found by brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ShardTests {
+
+	@Test
+	public void testSlicesCoverSolutions() {
+		List<int[]> expected = BruteForce.expected();
+		for (int count : new int[] { 1, 2, 3, 7, 16, 100 }) {
+			List<int[]> found = new ArrayList<>();
+			for (int i = 0; i != count; ++i) {
+				Constraint.Set<int[]> slice = BruteForce.problem().shard(i, count);
+				List<int[]> solutions = BruteForce.toList(slice.iterator());
+				assertEquals(solutions.size(), slice.count());
+				found.addAll(solutions);
+			}
+			// Slices are disjoint and contiguous, hence concatenate in order
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(found), "shards: " + count);
+		}
+	}
+
+	@Test
+	public void testSlicesDeterministic() {
+		for (int i = 0; i != 5; ++i) {
+			assertEquals(BruteForce.toString(BruteForce.toList(BruteForce.problem().shard(i, 5).iterator())),
+					BruteForce.toString(BruteForce.toList(BruteForce.problem().shard(i, 5).iterator())));
+		}
+	}
+
+	@Test
+	public void testInvalidShard() {
+		assertThrows(IllegalArgumentException.class, () -> BruteForce.problem().shard(2, 2));
+		assertThrows(IllegalArgumentException.class, () -> BruteForce.problem().shard(-1, 2));
+		assertThrows(IllegalArgumentException.class, () -> BruteForce.problem().shard(0, 0));
+		assertThrows(IllegalStateException.class, () -> new Constraint.Set<>(int[]::clone).shard(0, 1));
+	}
+}
@@ -0,0 +1,177 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the <code>solve()</code> constraint, which visits only those values
+ * solving a polynomial equation in the variable being declared. Hence, the
+ * solutions found must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SolveTests {
+
+	@Test
+	public void testLinear() {
+		// 3z + x == 2y
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-5, 5));
+		Variable y = cs.declare(between(-5, 5));
+		Variable z = cs.nextVariable();
+		cs.declare(and(between(-10, 10), solve(z.add(z).add(z).add(x), y.add(y))));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -5, -5, -10 }, new int[] { 5, 5, 10 },
+				vs -> 3 * vs[2] + vs[0] == 2 * vs[1]));
+	}
+
+	@Test
+	public void testQuadratic() {
+		// z^2 - x*z == y
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-4, 4));
+		Variable y = cs.declare(between(-4, 12));
+		Variable z = cs.nextVariable();
+		cs.declare(and(between(-8, 8), solve(z.multiply(z).add(new Variable(-1, 0).multiply(z)), y)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -4, -4, -8 }, new int[] { 4, 12, 8 },
+				vs -> vs[2] * vs[2] - vs[0] * vs[2] == vs[1]));
+	}
+
+	@Test
+	public void testCubic() {
+		// z^3 + x*z == y, including roots at zero when y == 0
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-3, 3));
+		Variable y = cs.declare(between(-30, 30));
+		Variable z = cs.nextVariable();
+		cs.declare(and(between(-4, 4), solve(z.multiply(z).multiply(z).add(x.multiply(z)), y)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -3, -30, -4 }, new int[] { 3, 30, 4 },
+				vs -> vs[2] * vs[2] * vs[2] + vs[0] * vs[2] == vs[1]));
+	}
+
+	@Test
+	public void testEveryValue() {
+		// x*z == 0 holds for every z when x is zero
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-2, 2));
+		Variable z = cs.nextVariable();
+		cs.declare(and(between(-3, 3), solve(x.multiply(z), new Variable(new Variable.Term(0)))));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -2, -3 }, new int[] { 2, 3 },
+				vs -> vs[0] * vs[1] == 0));
+	}
+
+	@Test
+	public void testNoSolution() {
+		// z^2 == -1
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable z = cs.nextVariable();
+		cs.declare(solve(z.multiply(z), new Variable(new Variable.Term(-1))));
+		assertFalse(cs.iterator().hasNext());
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testLargeRoots() {
+		// z^2 == x, where roots exceed any small range but are found directly
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(oneOf(0, 1 << 20, 1 << 30, Integer.MAX_VALUE));
+		Variable z = cs.nextVariable();
+		cs.declare(solve(z.multiply(z), x));
+		assertEquals("[0, 0]\n[1048576, -1024]\n[1048576, 1024]\n[1073741824, -32768]\n[1073741824, 32768]\n",
+				BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertEquals(5, cs.count());
+	}
+
+	@Test
+	public void testLargeCubic() {
+		// z^3 == x, where the constant has many divisors which are not roots
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(oneOf(-2146689000, 2146689000, 2147483646, Integer.MAX_VALUE));
+		Variable z = cs.nextVariable();
+		cs.declare(solve(z.multiply(z).multiply(z), x));
+		assertEquals("[-2146689000, -1290]\n[2146689000, 1290]\n", BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertEquals(2, cs.count());
+	}
+
+	@Test
+	public void testInvalid() {
+		Variable x = new Variable(1, 0);
+		assertThrows(IllegalArgumentException.class,
+				() -> solve(new Variable(new Variable.Term(1)), new Variable(new Variable.Term(2))));
+		// The unknown must be the variable being declared
+		assertThrows(IllegalArgumentException.class, () -> solve(x, new Variable(1, 1)).dependencies(0, new BitSet()));
+	}
+
+	@Test
+	public void testMultiplyOverflow() {
+		Variable x = new Variable(1 << 20, 0);
+		Variable y = new Variable(1 << 20, 1);
+		assertThrows(ArithmeticException.class, () -> x.multiply(y));
+		assertEquals(1 << 30, new Variable(1 << 15, 0).multiply(new Variable(1 << 15, 1)).evaluate(new int[] { 1, 1 }));
+	}
+
+	@Test
+	public void testAddOverflow() {
+		// Like terms are merged, so their coefficients are added
+		Variable x = new Variable(1 << 30, 0);
+		assertThrows(ArithmeticException.class, () -> x.add(x));
+		assertThrows(ArithmeticException.class, () -> x.add(new Variable(Integer.MAX_VALUE, 0)));
+		assertEquals(-1, x.add(new Variable(-(1 << 30) - 1, 0)).evaluate(new int[] { 1 }));
+		// Squaring (2^15*x + 2^15*y) gives the cross term x*y twice
+		Variable p = new Variable(1 << 15, 0).add(new Variable(1 << 15, 1));
+		assertThrows(ArithmeticException.class, () -> p.multiply(p));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(23);
+		for (int trial = 0; trial != 200; ++trial) {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(between(-3, 3));
+			Variable y = cs.declare(between(-3, 3));
+			Variable z = cs.nextVariable();
+			// Random polynomial in z of degree upto three, whose coefficients are
+			// polynomials in x and y
+			Variable lhs = z.multiply(randomCoefficient(random, x, y));
+			for (int power = 2; power <= 3; ++power) {
+				if (random.nextBoolean()) {
+					Variable term = z;
+					for (int i = 1; i != power; ++i) {
+						term = term.multiply(z);
+					}
+					lhs = lhs.add(term.multiply(randomCoefficient(random, x, y)));
+				}
+			}
+			Variable rhs = randomCoefficient(random, x, y);
+			final Variable l = lhs;
+			cs.declare(and(between(-6, 6), solve(lhs, rhs)));
+			List<int[]> expected = BruteForce.solutions(new int[] { -3, -3, -6 }, new int[] { 3, 3, 6 },
+					vs -> l.evaluate(vs) == rhs.evaluate(vs));
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial + ": " + lhs + " == " + rhs);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+			assertEquals(BigInteger.valueOf(expected.size()), cs.parallelCount(), "trial " + trial);
+		}
+	}
+
+	/**
+	 * Construct a random linear polynomial in two variables.
+	 *
+	 * @param random
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	private static Variable randomCoefficient(Random random, Variable x, Variable y) {
+		Variable c = new Variable(new Variable.Term(random.nextInt(7) - 3));
+		c = c.add(x.multiply(new Variable(new Variable.Term(random.nextInt(5) - 2))));
+		return c.add(y.multiply(new Variable(new Variable.Term(random.nextInt(5) - 2))));
+	}
+}
@@ -0,0 +1,178 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for constraints which leave holes in their ranges, such that the
+ * search skips directly to the next permitted value. Skipping must never lose
+ * a solution, hence the solutions found must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SparseDomainTests {
+
+	/**
+	 * A user-defined constraint permitting only odd values.
+	 */
+	private static final class Odd extends Constraint {
+		@Override
+		public int lowerBound(int[] values) {
+			return Integer.MIN_VALUE;
+		}
+
+		@Override
+		public int upperBound(int[] values) {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		public long nextValue(int[] values, int value) {
+			return (value & 1) != 0 ? value : (long) value + 1;
+		}
+
+		@Override
+		public void dependencies(int variable, BitSet deps) {
+			// Reads no variables
+		}
+	}
+
+	@Test
+	public void testNotEqual() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-2, 3));
+		Variable y = cs.declare(and(between(-2, 3), notEqual(x)));
+		cs.declare(and(between(-4, 6), notEqual(x), notEqual(y), notEqual(x.add(y))));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -2, -2, -4 }, new int[] { 3, 3, 6 },
+				vs -> vs[1] != vs[0] && vs[2] != vs[0] && vs[2] != vs[1] && vs[2] != vs[0] + vs[1]));
+	}
+
+	@Test
+	public void testMultipleOf() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(and(between(-10, 10), multipleOf(3)));
+		cs.declare(and(between(-10, 10), multipleOf(4), notEqual(x)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(2, -10, 10,
+				vs -> Math.floorMod(vs[0], 3) == 0 && Math.floorMod(vs[1], 4) == 0 && vs[1] != vs[0]));
+		assertThrows(IllegalArgumentException.class, () -> multipleOf(0));
+		assertThrows(IllegalArgumentException.class, () -> multipleOf(-2));
+	}
+
+	@Test
+	public void testOneOf() {
+		// Dense and sparse sets, with duplicates and negative values
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(oneOf(3, -1, 3, 0, 2));
+		cs.declare(and(oneOf(-500, 7, 900, 2), notEqual(x)));
+		cs.declare(and(between(-1, 3), oneOf(-1000, -1, 1, 3, 1000)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -1, -500, -1 }, new int[] { 3, 900, 3 }, vs -> {
+			return (vs[0] == -1 || vs[0] == 0 || vs[0] == 2 || vs[0] == 3)
+					&& (vs[1] == -500 || vs[1] == 7 || vs[1] == 900 || vs[1] == 2) && vs[1] != vs[0]
+					&& (vs[2] == -1 || vs[2] == 1 || vs[2] == 3);
+		}));
+	}
+
+	@Test
+	public void testOneOfEmpty() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(between(0, 3));
+		cs.declare(oneOf());
+		assertFalse(cs.iterator().hasNext());
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testOneOfExtremes() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		cs.declare(oneOf(Integer.MIN_VALUE, 0, Integer.MAX_VALUE));
+		cs.declare(and(oneOf(Integer.MAX_VALUE, Integer.MAX_VALUE - 1), notEqual(new Variable(1, 0))));
+		List<int[]> found = BruteForce.toList(cs.iterator());
+		assertEquals("[-2147483648, 2147483646]\n[-2147483648, 2147483647]\n[0, 2147483646]\n[0, 2147483647]\n"
+				+ "[2147483647, 2147483646]\n", BruteForce.toString(found));
+		assertEquals(5, cs.count());
+	}
+
+	@Test
+	public void testUserDefined() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(and(between(-5, 5), new Odd()));
+		cs.declare(and(between(-5, 5), new Odd(), notEqual(x)));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(2, -5, 5,
+				vs -> (vs[0] & 1) != 0 && (vs[1] & 1) != 0 && vs[1] != vs[0]));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(20);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 3;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			int[] factors = new int[n];
+			int[][] sets = new int[n][];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(9) - 4;
+				hi[v] = lo[v] + random.nextInt(7);
+				factors[v] = 1 + random.nextInt(3);
+				sets[v] = new int[random.nextInt(6)];
+				for (int i = 0; i != sets[v].length; ++i) {
+					sets[v][i] = random.nextInt(13) - 6;
+				}
+				Constraint c = and(between(lo[v], hi[v]), multipleOf(factors[v]));
+				if (sets[v].length != 0) {
+					c = and(c, oneOf(sets[v]));
+				}
+				if (v > 0) {
+					c = and(c, notEqual(new Variable(1, v - 1)));
+				}
+				cs.declare(c);
+			}
+			List<int[]> expected = BruteForce.solutions(lo, hi, vs -> {
+				for (int v = 0; v != n; ++v) {
+					if (Math.floorMod(vs[v], factors[v]) != 0 || (v > 0 && vs[v] == vs[v - 1])) {
+						return false;
+					} else if (sets[v].length != 0 && !contains(sets[v], vs[v])) {
+						return false;
+					}
+				}
+				return true;
+			});
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(BruteForce.toString(expected),
+					BruteForce.toString(BruteForce.toList(cs.compile().iterator())), "trial " + trial);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+		}
+	}
+
+	@Test
+	public void testSparseCost() {
+		// Each variable spans almost every int, but only a few values are visited
+		long count = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable x = cs.declare(oneOf(-1 << 30, 0, 1 << 30, Integer.MAX_VALUE));
+			cs.declare(and(between(0, 1 << 30), multipleOf(1 << 20), notEqual(x)));
+			return cs.count() + BruteForce.toList(cs.iterator()).size();
+		});
+		// Each of 4 values for x, with 1025 multiples less the two cases equal to x
+		assertEquals(2 * (4 * 1025 - 2), count);
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,188 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for breaking the symmetry of interchangeable variables. Only canonical
+ * representatives should be enumerated, whilst summing their orbits must give
+ * the number of solutions found by brute force without symmetry breaking.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SymmetryTests {
+
+	@Test
+	public void testRepresentatives() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		Variable z = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 5), greaterOrEqual(x.add(y).add(z))));
+		cs.symmetric(x, y, z);
+		Predicate<int[]> predicate = vs -> vs[3] >= vs[0] + vs[1] + vs[2];
+		List<int[]> all = BruteForce.solutions(new int[4], new int[] { 3, 3, 3, 5 }, predicate);
+		assertSameAsBruteForce(cs, all, BruteForce.solutions(new int[4], new int[] { 3, 3, 3, 5 },
+				predicate.and(vs -> vs[0] <= vs[1] && vs[1] <= vs[2])));
+	}
+
+	@Test
+	public void testOrbit() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[5];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = cs.declare(between(0, 3));
+		}
+		cs.symmetric(vars[0], vars[1], vars[2]);
+		cs.symmetric(vars[3], vars[4]);
+		assertEquals(6, cs.orbit(new int[] { 0, 1, 2, 3, 3 }));
+		assertEquals(3, cs.orbit(new int[] { 1, 1, 2, 3, 3 }));
+		assertEquals(1, cs.orbit(new int[] { 2, 2, 2, 3, 3 }));
+		assertEquals(6, cs.orbit(new int[] { 1, 1, 2, 0, 3 }));
+		assertEquals(12, cs.orbit(new int[] { 0, 1, 2, 0, 3 }));
+	}
+
+	@Test
+	public void testOrbitOverflow() {
+		// Orbit of 21 distinct values is 21!, which does not fit into a long
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable[] vars = new Variable[21];
+		int[] assignment = new int[vars.length];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = cs.declare(between(0, 20));
+			assignment[i] = i;
+		}
+		cs.symmetric(vars);
+		assertThrows(ArithmeticException.class, () -> cs.orbit(assignment));
+		// Whereas 21! / 3! does fit
+		assignment[19] = assignment[20] = assignment[18];
+		assertEquals(factorial(21).divide(factorial(3)).longValueExact(), cs.orbit(assignment));
+	}
+
+	@Test
+	public void testGroupOrder() {
+		// Groups are given out of declaration order, around a variable not in them
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 2));
+		cs.declare(between(0, 1));
+		Variable z = cs.declare(between(0, 2));
+		cs.require(lessOrEqual(x.add(z), 3));
+		cs.symmetric(z, x);
+		Predicate<int[]> predicate = vs -> vs[0] + vs[2] <= 3;
+		List<int[]> all = BruteForce.solutions(new int[3], new int[] { 2, 1, 2 }, predicate);
+		assertSameAsBruteForce(cs, all,
+				BruteForce.solutions(new int[3], new int[] { 2, 1, 2 }, predicate.and(vs -> vs[0] <= vs[2])));
+	}
+
+	@Test
+	public void testInvalid() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 2));
+		Variable y = cs.declare(between(0, 2));
+		Variable z = cs.declare(between(0, 2));
+		assertThrows(IllegalArgumentException.class, () -> cs.symmetric(x, x));
+		assertThrows(IllegalArgumentException.class, () -> cs.symmetric(x, new Variable(1, 3)));
+		assertThrows(IllegalArgumentException.class, () -> cs.symmetric(x, x.add(y)));
+		cs.symmetric(x, y);
+		assertThrows(IllegalArgumentException.class, () -> cs.symmetric(y, z));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(24);
+		for (int trial = 0; trial != 100; ++trial) {
+			final int n = 4;
+			final int hi = 1 + random.nextInt(3);
+			final int limit = random.nextInt(2 * n + 1);
+			final boolean distinct = random.nextBoolean();
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable[] vars = new Variable[n];
+			Variable sum = null;
+			for (int v = 0; v != n; ++v) {
+				vars[v] = cs.declare(between(0, hi));
+				sum = sum == null ? vars[v] : sum.add(vars[v]);
+			}
+			// Constraints invariant under any permutation of the variables
+			cs.require(lessOrEqual(sum, limit));
+			if (distinct) {
+				cs.require(allDifferent(vars));
+			}
+			Predicate<int[]> predicate = vs -> {
+				int total = 0;
+				for (int v = 0; v != n; ++v) {
+					total += vs[v];
+					for (int u = 0; distinct && u != v; ++u) {
+						if (vs[u] == vs[v]) {
+							return false;
+						}
+					}
+				}
+				return total <= limit;
+			};
+			// A random group of at least two variables
+			int first = random.nextInt(n - 1);
+			boolean[] group = new boolean[n];
+			group[first] = true;
+			group[first + 1 + random.nextInt(n - first - 1)] = true;
+			int size = 0;
+			for (int v = 0; v != n; ++v) {
+				group[v] |= random.nextInt(3) == 0;
+				size += group[v] ? 1 : 0;
+			}
+			Variable[] members = new Variable[size];
+			for (int v = 0, i = 0; v != n; ++v) {
+				if (group[v]) {
+					members[i++] = vars[v];
+				}
+			}
+			cs.symmetric(members);
+			List<int[]> all = BruteForce.solutions(n, 0, hi, predicate);
+			List<int[]> representatives = BruteForce.solutions(n, 0, hi, predicate.and(vs -> {
+				int last = Integer.MIN_VALUE;
+				for (int v = 0; v != n; ++v) {
+					if (group[v]) {
+						if (vs[v] < last) {
+							return false;
+						}
+						last = vs[v];
+					}
+				}
+				return true;
+			}));
+			assertEquals(BruteForce.toString(representatives), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(BigInteger.valueOf(all.size()), cs.bigOrbitCount(), "trial " + trial);
+		}
+	}
+
+	private static BigInteger factorial(int n) {
+		BigInteger r = BigInteger.ONE;
+		for (int i = 2; i <= n; ++i) {
+			r = r.multiply(BigInteger.valueOf(i));
+		}
+		return r;
+	}
+
+	private static void assertSameAsBruteForce(Constraint.Set<int[]> cs, List<int[]> all, List<int[]> representatives) {
+		assertFalse(representatives.isEmpty());
+		assertEquals(BruteForce.toString(representatives), BruteForce.toString(BruteForce.toList(cs.iterator())));
+		assertEquals(representatives.size(), cs.count());
+		assertEquals(BigInteger.valueOf(representatives.size()), cs.parallelCount());
+		long total = 0;
+		for (int k = 0; k != representatives.size(); ++k) {
+			assertEquals(k, cs.rank(representatives.get(k)));
+			total += cs.orbit(representatives.get(k));
+		}
+		assertEquals(all.size(), total);
+		assertEquals(BigInteger.valueOf(all.size()), cs.bigOrbitCount());
+		assertEquals(BigInteger.valueOf(all.size()), cs.compile().bigOrbitCount());
+	}
+}
@@ -0,0 +1,156 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the <code>table()</code> forward constraint, which must permit
+ * exactly those assignments matching one of its tuples. Hence, the solutions
+ * found must agree with brute force.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TableTests {
+
+	@Test
+	public void testTuples() {
+		int[][] tuples = { { 0, 1, 2 }, { 0, 2, 1 }, { 1, 0, 2 }, { 2, 2, 2 }, { 3, 1, 0 } };
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		Variable y = cs.declare(between(0, 3));
+		Variable z = cs.declare(between(0, 3));
+		cs.require(table(new Variable[] { x, y, z }, tuples));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(3, 0, 3, vs -> matches(tuples, vs, 0, 1, 2)));
+	}
+
+	@Test
+	public void testScopeOutOfOrder() {
+		// Scope lists the variables in a different order from their declaration
+		int[][] tuples = { { 5, -1 }, { 3, 0 }, { 3, 2 }, { -2, 2 }, { 4, 4 } };
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-2, 4));
+		cs.declare(between(0, 1));
+		Variable z = cs.declare(between(-2, 5));
+		cs.require(table(new Variable[] { z, x }, tuples));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(new int[] { -2, 0, -2 }, new int[] { 4, 1, 5 },
+				vs -> matches(tuples, vs, 2, 0)));
+	}
+
+	@Test
+	public void testDuplicateTuples() {
+		int[][] tuples = { { 1, 1 }, { 0, 2 }, { 1, 1 }, { 0, 2 } };
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 2));
+		Variable y = cs.declare(between(0, 2));
+		cs.require(table(new Variable[] { x, y }, tuples));
+		BruteForce.assertSameAsBruteForce(cs, BruteForce.solutions(2, 0, 2, vs -> matches(tuples, vs, 0, 1)));
+	}
+
+	@Test
+	public void testOverlappingTables() {
+		int[][] first = { { 0, 1 }, { 1, 2 }, { 2, 0 }, { 2, 2 } };
+		int[][] second = { { 1, 0 }, { 2, 1 }, { 2, 2 }, { 0, 0 } };
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 2));
+		Variable y = cs.declare(between(0, 2));
+		Variable z = cs.declare(between(0, 2));
+		cs.require(table(new Variable[] { x, y }, first));
+		cs.require(table(new Variable[] { y, z }, second));
+		BruteForce.assertSameAsBruteForce(cs,
+				BruteForce.solutions(3, 0, 2, vs -> matches(first, vs, 0, 1) && matches(second, vs, 1, 2)));
+	}
+
+	@Test
+	public void testEmpty() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 2));
+		Variable y = cs.declare(between(0, 2));
+		cs.require(table(new Variable[] { x, y }, new int[0][]));
+		assertFalse(cs.iterator().hasNext());
+		assertEquals(0, cs.count());
+	}
+
+	@Test
+	public void testInvalid() {
+		Variable x = new Variable(1, 0);
+		Variable y = new Variable(1, 1);
+		assertThrows(IllegalArgumentException.class, () -> table(new Variable[0], new int[0][]));
+		assertThrows(IllegalArgumentException.class, () -> table(new Variable[] { x, x }, new int[][] { { 0, 0 } }));
+		assertThrows(IllegalArgumentException.class, () -> table(new Variable[] { x, y }, new int[][] { { 0 } }));
+		assertThrows(IllegalArgumentException.class,
+				() -> table(new Variable[] { x, x.add(y) }, new int[][] { { 0, 0 } }));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(22);
+		for (int trial = 0; trial != 200; ++trial) {
+			final int n = 4;
+			int[] lo = new int[n];
+			int[] hi = new int[n];
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable[] vars = new Variable[n];
+			for (int v = 0; v != n; ++v) {
+				lo[v] = random.nextInt(3) - 1;
+				hi[v] = lo[v] + random.nextInt(4);
+				vars[v] = cs.declare(between(lo[v], hi[v]));
+			}
+			// A random scope of three distinct variables, in random order
+			int skip = random.nextInt(n);
+			int[] scope = new int[n - 1];
+			for (int v = 0, i = 0; v != n; ++v) {
+				if (v != skip) {
+					scope[i++] = v;
+				}
+			}
+			for (int i = scope.length - 1; i > 0; --i) {
+				int j = random.nextInt(i + 1);
+				int t = scope[i];
+				scope[i] = scope[j];
+				scope[j] = t;
+			}
+			int[][] tuples = new int[random.nextInt(12)][scope.length];
+			for (int[] tuple : tuples) {
+				for (int i = 0; i != tuple.length; ++i) {
+					tuple[i] = random.nextInt(6) - 2;
+				}
+			}
+			Variable[] group = new Variable[scope.length];
+			for (int i = 0; i != scope.length; ++i) {
+				group[i] = vars[scope[i]];
+			}
+			cs.require(table(group, tuples));
+			List<int[]> expected = BruteForce.solutions(lo, hi, vs -> matches(tuples, vs, scope));
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(BruteForce.toList(cs.iterator())),
+					"trial " + trial);
+			assertEquals(expected.size(), cs.count(), "trial " + trial);
+		}
+	}
+
+	/**
+	 * Determine whether the values of a given scope of variables match some tuple.
+	 *
+	 * @param tuples
+	 * @param values
+	 * @param scope
+	 * @return
+	 */
+	private static boolean matches(int[][] tuples, int[] values, int... scope) {
+		for (int[] tuple : tuples) {
+			boolean match = true;
+			for (int i = 0; i != scope.length && match; ++i) {
+				match = tuple[i] == values[scope[i]];
+			}
+			if (match) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,163 @@
+package jsmt.core;
+
+import static jsmt.core.Constraints.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for finding the <code>k</code> best solutions by branch and bound.
+ * Pruning must never lose a solution which belongs in the result, hence it
+ * must agree with sorting every solution in descending order of objective,
+ * where ties are kept in the order given by the iterator.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TopKTests {
+
+	@Test
+	public void testLinear() {
+		// 2x - y + z, subject to x + y + z <= 6
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 4));
+		Variable y = cs.declare(between(0, 4));
+		Variable z = cs.declare(between(0, 4));
+		cs.require(lessOrEqual(x.add(y).add(z), 6));
+		Variable objective = x.add(x).add(new Variable(-1, 1)).add(z);
+		for (int k : new int[] { 1, 2, 5, 17, 100 }) {
+			assertSameAsSorted(cs, objective, k);
+		}
+	}
+
+	@Test
+	public void testNonLinear() {
+		// x * y - z, over negative as well as positive values
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-3, 3));
+		Variable y = cs.declare(and(between(-3, 3), notEqual(x)));
+		Variable z = cs.declare(between(-2, 2));
+		Variable objective = x.multiply(y).add(new Variable(-1, 2));
+		for (int k : new int[] { 1, 3, 10, 50 }) {
+			assertSameAsSorted(cs, objective, k);
+		}
+	}
+
+	@Test
+	public void testTies() {
+		// Every solution ties, so the first k in iterator order are returned
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), greaterOrEqual(x)));
+		Variable objective = new Variable(new Variable.Term(7));
+		for (int k : new int[] { 1, 4, 10 }) {
+			assertSameAsSorted(cs, objective, k);
+		}
+	}
+
+	@Test
+	public void testPartialObjective() {
+		// Objective reads only the first variable, so most solutions tie
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(-2, 2));
+		Variable y = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), notEqual(y)));
+		for (int k : new int[] { 1, 5, 13, 30 }) {
+			assertSameAsSorted(cs, new Variable(-1, 0), k);
+			assertSameAsSorted(cs, x.multiply(x), k);
+		}
+	}
+
+	@Test
+	public void testLargeK() {
+		// The heap must not be sized by k up front
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 5));
+		Variable y = cs.declare(and(between(0, 5), notEqual(x)));
+		Variable objective = x.add(new Variable(-2, 1));
+		long count = cs.count();
+		for (int k : new int[] { (int) count, (int) count + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE }) {
+			assertSameAsSorted(cs, objective, k);
+			assertEquals(count, cs.topK(objective, k).size());
+			assertEquals(count, cs.parallelTopK(objective, k).size());
+		}
+	}
+
+	@Test
+	public void testNoSolution() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		cs.declare(and(between(0, 3), greaterOrEqual(x.add(new Variable(new Variable.Term(4))))));
+		assertTrue(cs.topK(x, 3).isEmpty());
+		assertTrue(cs.parallelTopK(x, Integer.MAX_VALUE).isEmpty());
+	}
+
+	@Test
+	public void testInvalid() {
+		Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+		Variable x = cs.declare(between(0, 3));
+		assertThrows(IllegalArgumentException.class, () -> cs.topK(x, 0));
+		assertThrows(IllegalArgumentException.class, () -> cs.parallelTopK(x, -1));
+		assertThrows(IllegalArgumentException.class, () -> cs.topK(new Variable(1, 1), 1));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(25);
+		for (int trial = 0; trial != 100; ++trial) {
+			final int n = 4;
+			Constraint.Set<int[]> cs = new Constraint.Set<>(int[]::clone);
+			Variable[] vars = new Variable[n];
+			Variable sum = null;
+			for (int v = 0; v != n; ++v) {
+				int lo = random.nextInt(5) - 2;
+				vars[v] = cs.declare(between(lo, lo + random.nextInt(4)));
+				sum = sum == null ? vars[v] : sum.add(vars[v]);
+			}
+			cs.require(lessOrEqual(sum, random.nextInt(6)));
+			// Random objective with coefficients of either sign, and maybe a product
+			Variable objective = new Variable(new Variable.Term(random.nextInt(5) - 2));
+			for (int v = 0; v != n; ++v) {
+				objective = objective.add(new Variable(random.nextInt(7) - 3, v));
+			}
+			if (random.nextBoolean()) {
+				objective = objective.add(vars[random.nextInt(n)].multiply(vars[random.nextInt(n)]));
+			}
+			int count = (int) cs.count();
+			int k = random.nextInt(4) == 0 ? Integer.MAX_VALUE : 1 + random.nextInt(2 * count + 1);
+			List<int[]> expected = sorted(cs, objective, k);
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.topK(objective, k)),
+					"trial " + trial + ": " + objective + ", k = " + k);
+			assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.parallelTopK(objective, k)),
+					"trial " + trial + ": " + objective + ", k = " + k);
+		}
+	}
+
+	/**
+	 * Enumerate every solution of a constraint set, and keep the first
+	 * <code>k</code> after (stably) sorting them in descending order of objective.
+	 *
+	 * @param cs
+	 * @param objective
+	 * @param k
+	 * @return
+	 */
+	private static List<int[]> sorted(Constraint.Set<int[]> cs, Variable objective, int k) {
+		List<int[]> all = new ArrayList<>(BruteForce.toList(cs.iterator()));
+		all.sort(Comparator.comparingInt((int[] vs) -> objective.evaluate(vs)).reversed());
+		return all.subList(0, Math.min(k, all.size()));
+	}
+
+	private static void assertSameAsSorted(Constraint.Set<int[]> cs, Variable objective, int k) {
+		List<int[]> expected = sorted(cs, objective, k);
+		assertFalse(expected.isEmpty());
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.topK(objective, k)), "k = " + k);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.parallelTopK(objective, k)), "k = " + k);
+		assertEquals(BruteForce.toString(expected), BruteForce.toString(cs.compile().topK(objective, k)), "k = " + k);
+	}
+}